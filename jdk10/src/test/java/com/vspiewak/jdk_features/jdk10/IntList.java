@@ -0,0 +1,247 @@
+package com.vspiewak.jdk_features.jdk10;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable list of {@code int} backed by a single packed array, with the {@code of} / {@code copyOf}
+ * semantics of {@link List#of} and {@link List#copyOf}: no nulls, defensive copy on creation.
+ */
+public final class IntList {
+
+    private static final IntList EMPTY = new IntList(new int[0]);
+
+    private final int[] values;
+
+    private IntList(int[] values) {
+        this.values = values;
+    }
+
+    public static IntList of(int... values) {
+        return values.length == 0 ? EMPTY : new IntList(values.clone());
+    }
+
+    public static IntList copyOf(Collection<Integer> values) {
+        if (values instanceof ListView) {
+            return ((ListView) values).owner();
+        }
+        var packed = new int[values.size()];
+        var i = 0;
+        for (Integer value : values) {
+            packed[i++] = value; // NPE on null, like List.copyOf
+        }
+        return packed.length == 0 ? EMPTY : new IntList(packed);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public boolean contains(int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int[] toArray() {
+        return values.clone();
+    }
+
+    public IntStream stream() {
+        return Arrays.stream(values);
+    }
+
+    /** unmodifiable {@code List} view, boxing on access */
+    public List<Integer> asList() {
+        return new ListView();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntList && Arrays.equals(values, ((IntList) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        // same as List.hashCode of the boxed values
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+
+    private final class ListView extends AbstractList<Integer> implements RandomAccess {
+
+        IntList owner() {
+            return IntList.this;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && IntList.this.contains((Integer) o);
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return listIterator(0);
+        }
+
+        @Override
+        public ListIterator<Integer> listIterator(int index) {
+            if (index < 0 || index > values.length) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return new ListIterator<>() {
+                private int cursor = index;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < values.length;
+                }
+
+                @Override
+                public Integer next() {
+                    if (cursor >= values.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[cursor++];
+                }
+
+                @Override
+                public boolean hasPrevious() {
+                    return cursor > 0;
+                }
+
+                @Override
+                public Integer previous() {
+                    if (cursor <= 0) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[--cursor];
+                }
+
+                @Override
+                public int nextIndex() {
+                    return cursor;
+                }
+
+                @Override
+                public int previousIndex() {
+                    return cursor - 1;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void set(Integer integer) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void add(Integer integer) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        // like List.of, mutators throw even when they would not change anything (as do the LongSet and
+        // IntObjectMap views)
+        @Override
+        public boolean add(Integer e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Integer> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Integer> filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Integer set(int index, Integer element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(int index, Integer element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Integer remove(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Integer> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Integer> operator) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sort(Comparator<? super Integer> c) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
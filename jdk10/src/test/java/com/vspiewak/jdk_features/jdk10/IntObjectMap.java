@@ -0,0 +1,334 @@
+package com.vspiewak.jdk_features.jdk10;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Immutable map from {@code int} keys, frozen into two packed arrays of twice the number of keys.
+ * <p>
+ * On creation it tries a few multiplicative hash seeds and keeps the one with the shortest longest
+ * probe sequence, so a lookup is two multiplies, two shifts and a short run of compares. Small maps
+ * usually get a seed that puts every key in its own slot (a perfect hash). The table is not grown to
+ * find one: at half load, linear probes stay short.
+ */
+public final class IntObjectMap<V> {
+
+    private static final IntObjectMap<?> EMPTY = new IntObjectMap<>(new int[0], new Object[0]);
+
+    private static final int SEED_ATTEMPTS = 64;
+    /** past this many keys, fewer seeds are tried: a perfect hash is out of reach, only probes get shorter */
+    private static final int SEARCH_KEYS = 1024;
+
+    private final int[] keys;
+    private final Object[] values; // null marks an empty slot
+    private final int size;
+    private final long seed;
+
+    private IntObjectMap(int[] keys, Object[] values) {
+        this.size = keys.length;
+        if (size == 0) {
+            this.keys = keys;
+            this.values = values;
+            this.seed = 0;
+            return;
+        }
+
+        var length = size * 2;
+        var random = new SplittableRandom(size);
+        long bestSeed = 0;
+        var bestProbe = Integer.MAX_VALUE;
+        var attempts = Math.max(4, SEED_ATTEMPTS * SEARCH_KEYS / Math.max(size, SEARCH_KEYS));
+        for (int attempt = 0; attempt < attempts && bestProbe > 0; attempt++) {
+            var candidate = random.nextLong() | 1;
+            var probe = maxProbe(keys, candidate, length);
+            if (probe < bestProbe) {
+                bestProbe = probe;
+                bestSeed = candidate;
+            }
+        }
+
+        this.seed = bestSeed;
+        this.keys = new int[length];
+        this.values = new Object[length];
+        for (int i = 0; i < size; i++) {
+            var slot = slot(keys[i], seed, length);
+            while (this.values[slot] != null) {
+                // an earlier copy of the key is on the same probe sequence
+                if (this.keys[slot] == keys[i]) {
+                    throw new IllegalArgumentException("duplicate key: " + keys[i]);
+                }
+                slot = next(slot, length);
+            }
+            this.keys[slot] = keys[i];
+            this.values[slot] = values[i];
+        }
+    }
+
+    private static int maxProbe(int[] keys, long seed, int length) {
+        var used = new boolean[length];
+        var max = 0;
+        for (int key : keys) {
+            var slot = slot(key, seed, length);
+            var probe = 0;
+            while (used[slot]) {
+                slot = next(slot, length);
+                probe++;
+            }
+            used[slot] = true;
+            max = Math.max(max, probe);
+        }
+        return max;
+    }
+
+    /** the high half of the hash, scaled to {@code [0, length)} by a multiply instead of a modulo */
+    private static int slot(int key, long seed, int length) {
+        return (int) ((((key * seed) >>> 32) * length) >>> 32);
+    }
+
+    private static int next(int slot, int length) {
+        return slot + 1 == length ? 0 : slot + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> IntObjectMap<V> of() {
+        return (IntObjectMap<V>) EMPTY;
+    }
+
+    public static <V> IntObjectMap<V> of(int k1, V v1) {
+        return ofEntries(new int[]{k1}, new Object[]{v1});
+    }
+
+    public static <V> IntObjectMap<V> of(int k1, V v1, int k2, V v2) {
+        return ofEntries(new int[]{k1, k2}, new Object[]{v1, v2});
+    }
+
+    public static <V> IntObjectMap<V> of(int k1, V v1, int k2, V v2, int k3, V v3) {
+        return ofEntries(new int[]{k1, k2, k3}, new Object[]{v1, v2, v3});
+    }
+
+    public static <V> IntObjectMap<V> copyOf(Map<Integer, ? extends V> map) {
+        if (map instanceof IntObjectMap.MapView) {
+            @SuppressWarnings("unchecked")
+            var owner = (IntObjectMap<V>) ((IntObjectMap<?>.MapView) map).owner();
+            return owner;
+        }
+        var keys = new int[map.size()];
+        var values = new Object[map.size()];
+        var i = 0;
+        for (Map.Entry<Integer, ? extends V> e : map.entrySet()) {
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+            i++;
+        }
+        return ofEntries(keys, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> IntObjectMap<V> ofEntries(int[] keys, Object[] values) {
+        for (Object value : values) {
+            Objects.requireNonNull(value);
+        }
+        // duplicate keys are detected by the constructor, when filling the table
+        return keys.length == 0 ? (IntObjectMap<V>) EMPTY : new IntObjectMap<>(keys, values);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** length of the packed arrays */
+    int slots() {
+        return keys.length;
+    }
+
+    /** true when every key sits in its own slot */
+    public boolean isPerfect() {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null && slot(keys[i], seed, keys.length) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (size == 0) {
+            return null;
+        }
+        var slot = slot(key, seed, keys.length);
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return (V) value;
+            }
+            slot = next(slot, keys.length);
+        }
+        return null;
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        var value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /** unmodifiable {@code Map} view, boxing on access */
+    public Map<Integer, V> asMap() {
+        return new MapView();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntObjectMap && asMap().equals(((IntObjectMap<?>) o).asMap());
+    }
+
+    @Override
+    public int hashCode() {
+        return asMap().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    private final class MapView extends AbstractMap<Integer, V> {
+
+        IntObjectMap<V> owner() {
+            return IntObjectMap.this;
+        }
+
+        @Override
+        public V get(Object key) {
+            return key instanceof Integer ? IntObjectMap.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public V put(Integer key, V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putAll(Map<? extends Integer, ? extends V> m) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V putIfAbsent(Integer key, V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V remove(Object key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V replace(Integer key, V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean replace(Integer key, V oldValue, V newValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super Integer, ? super V, ? extends V> function) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V computeIfAbsent(Integer key, Function<? super Integer, ? extends V> mappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V computeIfPresent(Integer key, BiFunction<? super Integer, ? super V, ? extends V> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V compute(Integer key, BiFunction<? super Integer, ? super V, ? extends V> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V merge(Integer key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Entry<Integer, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, V>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < values.length && values[from] == null) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Entry<Integer, V> next() {
+                            if (next >= values.length) {
+                                throw new NoSuchElementException();
+                            }
+                            var entry = new SimpleImmutableEntry<>(keys[next], (V) values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+}
@@ -1,14 +1,23 @@
 package com.vspiewak.jdk_features.jdk10;
 
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.lang.ref.Reference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class Jdk10Tests {
 
@@ -33,4 +42,150 @@ class Jdk10Tests {
         assertThat(us).isUnmodifiable();
     }
 
+    @Test
+    void canUseCompactPrimitiveCollections() {
+        var ints = IntList.copyOf(new ArrayList<>(List.of(3, 1, 2)));
+        var longs = LongSet.copyOf(List.of(7L, 5L, 7L));
+        var routes = IntObjectMap.of(200, "ok", 404, "not found", 500, "error");
+
+        assertThat(ints.asList()).isEqualTo(List.of(3, 1, 2)).isUnmodifiable();
+        assertThat(IntList.copyOf(ints.asList())).isSameAs(ints);
+        assertThat(longs.asSet()).isEqualTo(Set.of(5L, 7L)).isUnmodifiable();
+        assertThat(longs.contains(5L)).isTrue();
+        assertThat(routes.asMap()).isEqualTo(Map.of(200, "ok", 404, "not found", 500, "error")).isUnmodifiable();
+        assertThat(routes.get(404)).isEqualTo("not found");
+        assertThat(routes.get(302)).isNull();
+        assertThat(routes.isPerfect()).isTrue();
+
+        assertThatThrownBy(() -> LongSet.of(1L, 1L)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> IntObjectMap.of(1, "a", 1, "b")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> IntList.copyOf(Arrays.asList(1, null))).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    void canLookupLargeFrozenIntObjectMap() {
+        var source = new HashMap<Integer, String>();
+        var random = new Random(42);
+        while (source.size() < 10_000) {
+            var key = random.nextInt();
+            source.put(key, "v" + key);
+        }
+
+        var frozen = IntObjectMap.copyOf(source);
+
+        assertThat(frozen.slots()).isEqualTo(2 * source.size());
+        assertThat(frozen.asMap()).isEqualTo(source);
+        source.forEach((k, v) -> assertThat(frozen.get(k)).isEqualTo(v));
+
+        var missing = random.nextInt();
+        while (source.containsKey(missing)) {
+            missing++;
+        }
+        assertThat(frozen.containsKey(missing)).isFalse();
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareFootprintAndLookupWithMapOfAndSetOf() {
+        // JOL is not on the class path: the footprint is the heap retained by many copies, after a GC
+        var copies = 100_000;
+        var random = new Random(42);
+        var value = "v";
+        for (var size : new int[]{4, 16}) {
+            var keys = new int[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = 1_000 + random.nextInt(1 << 20); // outside the Integer cache
+            }
+            var compact = retainedBytes(copies, () -> {
+                var map = new HashMap<Integer, String>();
+                for (int key : keys) {
+                    map.put(key, value);
+                }
+                return IntObjectMap.copyOf(map);
+            });
+            var boxed = retainedBytes(copies, () -> {
+                var map = new HashMap<Integer, String>();
+                for (int key : keys) {
+                    map.put(key, value);
+                }
+                return Map.copyOf(map);
+            });
+            var longs = retainedBytes(copies, () -> LongSet.of(Arrays.stream(keys).asLongStream().toArray()));
+            var boxedLongs = retainedBytes(copies, () -> Set.copyOf(
+                    Arrays.stream(keys).asLongStream().boxed().collect(Collectors.toList())));
+            System.out.printf("%2d entries: IntObjectMap %4d bytes, Map.of %4d bytes; LongSet %4d bytes, Set.of %4d bytes%n",
+                    size, compact / copies, boxed / copies, longs / copies, boxedLongs / copies);
+        }
+
+        for (var size : new int[]{8, 1_000, 10_000, 100_000}) {
+            var source = new HashMap<Integer, String>();
+            while (source.size() < size) {
+                source.put(random.nextInt(), value);
+            }
+            var start = System.nanoTime();
+            var compact = IntObjectMap.copyOf(source);
+            var buildNanos = System.nanoTime() - start;
+            var boxed = Map.copyOf(source);
+
+            var probes = new int[1 << 16];
+            var boxedProbes = new Integer[probes.length];
+            var keys = source.keySet().toArray(new Integer[0]);
+            for (int i = 0; i < probes.length; i++) {
+                boxedProbes[i] = keys[random.nextInt(keys.length)];
+                probes[i] = boxedProbes[i];
+            }
+            System.out.printf("%6d entries: IntObjectMap %.1f ns/get (built in %.1f ms, perfect: %s), Map.of %.1f ns/get%n",
+                    size, nanosPerGet(compact, probes), buildNanos / 1e6, compact.isPerfect(), nanosPerGet(boxed, boxedProbes));
+        }
+    }
+
+    /** best of 20 rounds; every probe must be found */
+    private static double nanosPerGet(IntObjectMap<String> map, int[] probes) {
+        var best = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            var found = 0;
+            var start = System.nanoTime();
+            for (int probe : probes) {
+                found += map.get(probe) != null ? 1 : 0;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertThat(found).isEqualTo(probes.length);
+        }
+        return (double) best / probes.length;
+    }
+
+    private static double nanosPerGet(Map<Integer, String> map, Integer[] probes) {
+        var best = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            var found = 0;
+            var start = System.nanoTime();
+            for (Integer probe : probes) {
+                found += map.get(probe) != null ? 1 : 0;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertThat(found).isEqualTo(probes.length);
+        }
+        return (double) best / probes.length;
+    }
+
+    /** builds {@code copies} objects and returns the heap they retain */
+    private static long retainedBytes(int copies, Supplier<Object> factory) {
+        var objects = new Object[copies];
+        var before = usedHeapAfterGc();
+        for (int i = 0; i < copies; i++) {
+            objects[i] = factory.get();
+        }
+        var retained = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(objects);
+        return retained;
+    }
+
+    private static long usedHeapAfterGc() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
 }
@@ -0,0 +1,168 @@
+package com.vspiewak.jdk_features.jdk10;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+
+/**
+ * Immutable set of {@code long} stored as one sorted array, looked up by binary search.
+ * {@code of} rejects duplicates like {@link Set#of}, {@code copyOf} drops them like {@link Set#copyOf}.
+ */
+public final class LongSet {
+
+    private static final LongSet EMPTY = new LongSet(new long[0]);
+
+    private final long[] sorted;
+
+    private LongSet(long[] sorted) {
+        this.sorted = sorted;
+    }
+
+    public static LongSet of(long... values) {
+        var sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                throw new IllegalArgumentException("duplicate element: " + sorted[i]);
+            }
+        }
+        return sorted.length == 0 ? EMPTY : new LongSet(sorted);
+    }
+
+    public static LongSet copyOf(Collection<Long> values) {
+        if (values instanceof SetView) {
+            return ((SetView) values).owner();
+        }
+        var sorted = new long[values.size()];
+        var i = 0;
+        for (Long value : values) {
+            sorted[i++] = value; // NPE on null, like Set.copyOf
+        }
+        Arrays.sort(sorted);
+        var distinct = 0;
+        for (int j = 0; j < sorted.length; j++) {
+            if (j == 0 || sorted[j] != sorted[j - 1]) {
+                sorted[distinct++] = sorted[j];
+            }
+        }
+        if (distinct == 0) {
+            return EMPTY;
+        }
+        return new LongSet(distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct));
+    }
+
+    public int size() {
+        return sorted.length;
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(sorted, value) >= 0;
+    }
+
+    public LongStream stream() {
+        return Arrays.stream(sorted);
+    }
+
+    /** unmodifiable {@code Set} view, boxing on access */
+    public Set<Long> asSet() {
+        return new SetView();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LongSet && Arrays.equals(sorted, ((LongSet) o).sorted);
+    }
+
+    @Override
+    public int hashCode() {
+        // same as Set.hashCode of the boxed values
+        var h = 0;
+        for (long value : sorted) {
+            h += Long.hashCode(value);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(sorted);
+    }
+
+    private final class SetView extends AbstractSet<Long> {
+
+        LongSet owner() {
+            return LongSet.this;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Long && LongSet.this.contains((Long) o);
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < sorted.length;
+                }
+
+                @Override
+                public Long next() {
+                    if (next >= sorted.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return sorted[next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return sorted.length;
+        }
+
+        @Override
+        public boolean add(Long e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Long> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Long> filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
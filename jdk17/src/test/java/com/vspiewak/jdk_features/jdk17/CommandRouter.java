@@ -0,0 +1,270 @@
+package com.vspiewak.jdk_features.jdk17;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes ASCII command names straight from the bytes they arrived in, without decoding a
+ * {@code String}: a perfect hash over the name bytes gives the only slot the name can be
+ * in, and one comparison against the name stored there confirms it.
+ * <p>
+ * The hash is built by hash-and-displace (CHD): names are spread over buckets of about
+ * {@value #BUCKET_LOAD} by their hash, and each bucket, largest first, gets the smallest displacement
+ * that moves all its names to free slots. A lookup is one hash of the bytes plus one displacement read,
+ * and building takes about linear time; the table starts at 1.25 to 2.5 slots per name.
+ * <p>
+ * With {@code ignoreCase}, ASCII letters are folded to upper case while hashing and comparing, as
+ * text protocols usually accept {@code get} for {@code GET}.
+ */
+public final class CommandRouter<H> {
+
+    /** average names per bucket */
+    private static final int BUCKET_LOAD = 4;
+    private static final int MAX_SEEDS = 16;
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+
+    private final boolean ignoreCase;
+    private final int seed;
+    private final int mask;
+    private final int[] displacements;
+    private final int maxLength;
+    private final byte[][] names;
+    private final Object[] handlers;
+    private final int[] ids;
+
+    private CommandRouter(boolean ignoreCase, int seed, int mask, int[] displacements, int maxLength,
+                          byte[][] names, Object[] handlers, int[] ids) {
+        this.ignoreCase = ignoreCase;
+        this.seed = seed;
+        this.mask = mask;
+        this.displacements = displacements;
+        this.maxLength = maxLength;
+        this.names = names;
+        this.handlers = handlers;
+        this.ids = ids;
+    }
+
+    /** the id of a route is its position in the iteration order of {@code routes} */
+    public static <H> CommandRouter<H> of(Map<String, ? extends H> routes, boolean ignoreCase) {
+        List<byte[]> keys = new ArrayList<>();
+        List<H> values = new ArrayList<>();
+        Set<String> unique = new HashSet<>();
+        int maxLength = 0;
+        for (Map.Entry<String, ? extends H> route : routes.entrySet()) {
+            byte[] name = route.getKey().getBytes(StandardCharsets.US_ASCII);
+            if (!route.getKey().equals(new String(name, StandardCharsets.US_ASCII))) {
+                throw new IllegalArgumentException("not an ASCII command name: " + route.getKey());
+            }
+            if (ignoreCase) {
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = (byte) fold(name[i]);
+                }
+            }
+            if (!unique.add(new String(name, StandardCharsets.US_ASCII))) {
+                throw new IllegalArgumentException("duplicate command name: " + route.getKey()
+                        + (ignoreCase ? " (ignoring case)" : ""));
+            }
+            keys.add(name);
+            values.add(route.getValue());
+            maxLength = Math.max(maxLength, name.length);
+        }
+
+        int buckets = powerOfTwoAtLeast((keys.size() + BUCKET_LOAD - 1) / BUCKET_LOAD);
+        int size = powerOfTwoAtLeast(keys.size() + keys.size() / 4);
+        for (int attempt = 0; attempt < 4; attempt++, size <<= 1) {
+            for (int seed = 1; seed <= MAX_SEEDS; seed++) {
+                int[] displacements = new int[buckets];
+                int[] slots = place(keys, seed, size - 1, displacements);
+                if (slots != null) {
+                    byte[][] names = new byte[size][];
+                    Object[] handlers = new Object[size];
+                    int[] ids = new int[size];
+                    for (int id = 0; id < keys.size(); id++) {
+                        names[slots[id]] = keys.get(id);
+                        handlers[slots[id]] = values.get(id);
+                        ids[slots[id]] = id;
+                    }
+                    return new CommandRouter<>(ignoreCase, seed, size - 1, displacements, maxLength, names, handlers, ids);
+                }
+            }
+        }
+        throw new IllegalArgumentException("no perfect hash found for " + keys.size() + " command names");
+    }
+
+    /**
+     * Fills {@code displacements} and returns the slot of each key, or null when a bucket cannot be
+     * placed (or two keys of a bucket have the same hash) with this seed; keys are already folded.
+     */
+    private static int[] place(List<byte[]> keys, int seed, int mask, int[] displacements) {
+        int bucketMask = displacements.length - 1;
+        int[] hashes = new int[keys.size()];
+        int[] counts = new int[displacements.length];
+        for (int id = 0; id < keys.size(); id++) {
+            hashes[id] = hash(seed, keys.get(id), 0, keys.get(id).length, false);
+            counts[hashes[id] & bucketMask]++;
+        }
+        // members of bucket b are at [starts[b], starts[b] + counts[b]) of members
+        int[] starts = new int[displacements.length + 1];
+        for (int b = 0; b < displacements.length; b++) {
+            starts[b + 1] = starts[b] + counts[b];
+        }
+        int[] members = new int[keys.size()];
+        int[] filled = starts.clone();
+        for (int id = 0; id < keys.size(); id++) {
+            members[filled[hashes[id] & bucketMask]++] = id;
+        }
+        Integer[] order = new Integer[displacements.length];
+        for (int b = 0; b < order.length; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(counts[b], counts[a]));
+
+        boolean[] taken = new boolean[mask + 1];
+        int[] slots = new int[keys.size()];
+        for (int bucket : order) {
+            int from = starts[bucket];
+            int to = from + counts[bucket];
+            if (from == to) {
+                break;
+            }
+            int d = 0;
+            while (!fits(hashes, members, from, to, d, mask, taken, slots)) {
+                if (++d == MAX_DISPLACEMENT) {
+                    return null;
+                }
+            }
+            displacements[bucket] = d;
+        }
+        return slots;
+    }
+
+    /** whether every member lands on a distinct free slot with displacement {@code d}; if so, takes them */
+    private static boolean fits(int[] hashes, int[] members, int from, int to, int d, int mask,
+                                boolean[] taken, int[] slots) {
+        for (int i = from; i < to; i++) {
+            int id = members[i];
+            int slot = displace(hashes[id], d) & mask;
+            if (taken[slot]) {
+                for (int j = from; j < i; j++) {
+                    taken[slots[members[j]]] = false;
+                }
+                return false;
+            }
+            taken[slot] = true;
+            slots[id] = slot;
+        }
+        return true;
+    }
+
+    /** the handler of the name in {@code bytes[from, to)}, or null */
+    @SuppressWarnings("unchecked")
+    public H route(byte[] bytes, int from, int to) {
+        int slot = slot(bytes, from, to);
+        return slot < 0 ? null : (H) handlers[slot];
+    }
+
+    /** the handler of the name in {@code buffer[from, to)}, or null; the buffer position is not used */
+    @SuppressWarnings("unchecked")
+    public H route(ByteBuffer buffer, int from, int to) {
+        int slot = slot(buffer, from, to);
+        return slot < 0 ? null : (H) handlers[slot];
+    }
+
+    /** the id of the name, or -1: a dense int to {@code switch} on */
+    public int id(byte[] bytes, int from, int to) {
+        int slot = slot(bytes, from, to);
+        return slot < 0 ? -1 : ids[slot];
+    }
+
+    public int id(ByteBuffer buffer, int from, int to) {
+        int slot = slot(buffer, from, to);
+        return slot < 0 ? -1 : ids[slot];
+    }
+
+    private int slot(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (length > maxLength) {
+            return -1;
+        }
+        int slot = slot(hash(seed, bytes, from, to, ignoreCase));
+        byte[] name = names[slot];
+        if (name == null || name.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = bytes[from + i];
+            if ((ignoreCase ? fold(b) : b) != name[i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    private int slot(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            return slot(buffer.array(), buffer.arrayOffset() + from, buffer.arrayOffset() + to);
+        }
+        int length = to - from;
+        if (length > maxLength) {
+            return -1;
+        }
+        int h = seed ^ length;
+        for (int i = from; i < to; i++) {
+            h = step(h, buffer.get(i), ignoreCase);
+        }
+        int slot = slot(h);
+        byte[] name = names[slot];
+        if (name == null || name.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get(from + i);
+            if ((ignoreCase ? fold(b) : b) != name[i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    private int slot(int hash) {
+        return displace(hash, displacements[hash & (displacements.length - 1)]) & mask;
+    }
+
+    /** FNV-1a, seeded with the length; the bucket is taken from the low bits */
+    private static int hash(int seed, byte[] bytes, int from, int to, boolean ignoreCase) {
+        int h = seed ^ (to - from);
+        for (int i = from; i < to; i++) {
+            h = step(h, bytes[i], ignoreCase);
+        }
+        return h;
+    }
+
+    private static int step(int h, int b, boolean ignoreCase) {
+        return (h ^ (ignoreCase ? fold(b) : b)) * 0x01000193;
+    }
+
+    /** the murmur3 finalizer, so that each displacement scatters the bucket anew */
+    private static int displace(int hash, int d) {
+        int h = hash ^ d * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int powerOfTwoAtLeast(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int fold(int b) {
+        return b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b;
+    }
+
+}
@@ -1,13 +1,38 @@
 package com.vspiewak.jdk_features.jdk17;
 
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.BreakIterator;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 
 class Jdk17Tests {
@@ -19,6 +44,89 @@ class Jdk17Tests {
         assertThat(fmt.format(1_200_000)).isEqualTo("1M");
     }
 
+    @Test
+    void canFormatNumbersIdenticallyThroughCachedFormats() {
+        NumberFormats formats = new NumberFormats(64);
+        RandomGenerator random = RandomGeneratorFactory.of("L64X128MixRandom").create(41);
+        long[] values = new long[200];
+        for (int i = 0; i < values.length; i++) {
+            // spread over every magnitude, both signs
+            values[i] = random.nextLong() >> random.nextInt(64);
+        }
+
+        int fast = 0;
+        StringBuilder out = new StringBuilder();
+        for (Locale locale : NumberFormat.getAvailableLocales()) {
+            for (NumberFormats.Kind kind : NumberFormats.Kind.values()) {
+                NumberFormat reference = NumberFormats.create(locale, kind);
+                for (long value : values) {
+                    out.setLength(0);
+                    assertThat(formats.formatTo(value, locale, kind, out).toString())
+                            .as("%s %s %d", locale, kind, value)
+                            .isEqualTo(reference.format(value));
+                }
+                if (formats.hasFastPath(locale, kind)) {
+                    fast++;
+                }
+            }
+        }
+        assertThat(formats.size()).isEqualTo(64);
+        assertThat(formats.hasFastPath(Locale.US, NumberFormats.Kind.NUMBER)).isTrue();
+        assertThat(formats.format(1_200_000, Locale.US, NumberFormats.Kind.COMPACT_SHORT)).isEqualTo("1M");
+        assertThat(formats.format(-1_234_567, Locale.GERMANY, NumberFormats.Kind.NUMBER)).isEqualTo("-1.234.567");
+        // a lent instance reconfigured by the caller is not handed out again
+        assertThat(formats.<String>with(Locale.US, NumberFormats.Kind.NUMBER, format -> {
+            format.setGroupingUsed(false);
+            return format.format(1_234_567);
+        })).isEqualTo("1234567");
+        assertThat(formats.<String>with(Locale.US, NumberFormats.Kind.NUMBER, format -> format.format(1_234_567)))
+                .isEqualTo("1,234,567");
+        // the JDK's own patterns mostly fit the fast path
+        assertThat(fast).isGreaterThan(NumberFormat.getAvailableLocales().length * NumberFormats.Kind.values().length / 2);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canFormatNumbersConcurrentlyFasterThanFreshInstances() throws Exception {
+        NumberFormats formats = new NumberFormats(16);
+        Locale[] locales = {Locale.US, Locale.FRANCE, Locale.GERMANY, Locale.JAPAN};
+        int count = 200_000;
+
+        long start = System.nanoTime();
+        long length = 0;
+        for (int i = 0; i < count / 100; i++) {
+            length += NumberFormats.create(locales[i & 3], NumberFormats.Kind.COMPACT_SHORT).format(i * 7919L).length();
+        }
+        double freshPerSecond = count / 100 * 1e9 / (System.nanoTime() - start);
+
+        List<Thread> threads = new ArrayList<>();
+        long[] lengths = new long[4];
+        start = System.nanoTime();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                StringBuilder out = new StringBuilder();
+                for (int i = 0; i < count; i++) {
+                    out.setLength(0);
+                    NumberFormats.Kind kind = (i & 1) == 0 ? NumberFormats.Kind.NUMBER : NumberFormats.Kind.COMPACT_SHORT;
+                    lengths[thread] += formats.formatTo(i * 7919L, locales[(i + thread) & 3], kind, out).length();
+                }
+            });
+            worker.start();
+            threads.add(worker);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double cachedPerSecond = 4L * count * 1e9 / (System.nanoTime() - start);
+
+        assertThat(length).isPositive();
+        assertThat(lengths).doesNotContain(0L);
+        assertThat(cachedPerSecond).isGreaterThan(freshPerSecond);
+        System.out.printf("NumberFormats: %.0f formats/s cached (4 threads), %.0f formats/s with fresh instances%n",
+                cachedPerSecond, freshPerSecond);
+    }
+
     // Java 12: Unicode 11.0 support (e.g., checking a supplementary character)
     @Test
     void canUseUnicode11() {
@@ -26,6 +134,258 @@ class Jdk17Tests {
         assertThat(reiwa.codePointCount(0, reiwa.length())).isEqualTo(1);
     }
 
+    private static final String[] TEXT_PIECES = {
+            "a", "b", "Z", " ", ".", "\r\n", "\n", "é", "ß", "€", "中", "\uD83D\uDE00", "e\u0301", "\u0301",
+            "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67", "\uD83C\uDDEB\uD83C\uDDF7", "\u1100\u1161\u11A8",
+            "\u0915\u094D\u0937", "\u00A0"};
+
+    private static String randomText(RandomGenerator random, int pieces) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            // mostly ASCII, like real input
+            text.append(random.nextInt(4) > 0 ? TEXT_PIECES[random.nextInt(5)] : TEXT_PIECES[random.nextInt(TEXT_PIECES.length)]);
+        }
+        return text.toString();
+    }
+
+    @Test
+    void canCountAndValidateUtf8LikeTheJdk() {
+        RandomGenerator random = RandomGeneratorFactory.of("L64X128MixRandom").create(42);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        for (int round = 0; round < 2_000; round++) {
+            String text = randomText(random, random.nextInt(100));
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            assertThat(Utf8Kernels.codePointCount(utf8, 0, utf8.length)).isEqualTo(text.codePointCount(0, text.length()));
+            assertThat(Utf8Kernels.isValid(utf8, 0, utf8.length)).isTrue();
+            assertThat(Utf8Kernels.utf8Length(text)).isEqualTo(utf8.length);
+
+            // corrupt a byte or cut the end, then compare the error position with the JDK decoder
+            if (utf8.length > 0) {
+                byte[] broken = utf8.clone();
+                int length = broken.length;
+                if (random.nextBoolean()) {
+                    broken[random.nextInt(length)] = (byte) random.nextInt(256);
+                } else {
+                    length = random.nextInt(length);
+                }
+                ByteBuffer in = ByteBuffer.wrap(broken, 0, length);
+                CoderResult result = decoder.reset().decode(in, CharBuffer.allocate(2 * length), true);
+                assertThat(Utf8Kernels.invalidAt(broken, 0, length))
+                        .as("%s", HexFormat.of().formatHex(broken, 0, length))
+                        .isEqualTo(result.isError() ? in.position() : -1);
+            }
+        }
+
+        String unpaired = "a\uD800b\uDC00" + "\uD83D\uDE00";
+        assertThat(Utf8Kernels.utf8Length(unpaired)).isEqualTo(unpaired.getBytes(StandardCharsets.UTF_8).length);
+        byte[] surrogate = {(byte) 0xED, (byte) 0xA0, (byte) 0x80};
+        assertThat(Utf8Kernels.invalidAt(surrogate, 0, 3)).isZero();
+    }
+
+    @Test
+    void canTruncateUtf8WithoutSplittingGraphemeClusters() {
+        RandomGenerator random = RandomGeneratorFactory.of("L64X128MixRandom").create(43);
+        BreakIterator graphemes = BreakIterator.getCharacterInstance(Locale.ROOT);
+
+        for (int round = 0; round < 300; round++) {
+            String text = randomText(random, random.nextInt(60));
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            graphemes.setText(text);
+            for (int max = 0; max <= utf8.length; max++) {
+                int end = Utf8Kernels.truncate(utf8, 0, utf8.length, max);
+                String prefix = new String(utf8, 0, end, StandardCharsets.UTF_8);
+
+                assertThat(end).isLessThanOrEqualTo(max);
+                assertThat(graphemes.isBoundary(prefix.length())).as("%s cut at %d", text, max).isTrue();
+                if (prefix.length() < text.length()) {
+                    // the next cluster would not have fit
+                    int next = graphemes.following(prefix.length());
+                    assertThat(Utf8Kernels.utf8Length(text.substring(0, next))).isGreaterThan(max);
+                }
+                assertThat(Utf8Kernels.truncate(text, max)).isEqualTo(prefix);
+            }
+        }
+
+        assertThat(Utf8Kernels.truncate("cafe\u0301!", 5)).isEqualTo("caf");
+        if (Runtime.version().feature() >= 20) {
+            // emoji ZWJ sequences are single clusters from Java 20 on
+            String family = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";
+            assertThat(Utf8Kernels.truncate("ok " + family, 10)).isEqualTo("ok ");
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canScanMostlyAsciiUtf8AtGigabytesPerSecond() {
+        RandomGenerator random = RandomGeneratorFactory.of("L64X128MixRandom").create(44);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 16 << 20) {
+            text.append(random.nextInt(100) == 0 ? "é€中" : "the quick brown fox jumps over the lazy dog ");
+        }
+        String string = text.toString();
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        int expected = string.codePointCount(0, string.length());
+
+        int rounds = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            assertThat(Utf8Kernels.codePointCount(utf8, 0, utf8.length)).isEqualTo(expected);
+        }
+        double count = (double) rounds * utf8.length / (System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            assertThat(Utf8Kernels.isValid(utf8, 0, utf8.length)).isTrue();
+        }
+        double validate = (double) rounds * utf8.length / (System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds / 4; i++) {
+            String decoded = new String(utf8, StandardCharsets.UTF_8);
+            assertThat(decoded.codePointCount(0, decoded.length())).isEqualTo(expected);
+        }
+        double decode = (double) rounds / 4 * utf8.length / (System.nanoTime() - start);
+
+        System.out.printf("Utf8Kernels: count %.2f GB/s, validate %.2f GB/s, decode + String.codePointCount %.2f GB/s%n",
+                count, validate, decode);
+    }
+
+    private static final List<String> COMMANDS = List.of(
+            "GET", "SET", "DEL", "INCR", "DECR", "EXISTS", "EXPIRE", "TTL", "MGET", "MSET",
+            "HGET", "HSET", "LPUSH", "RPUSH", "LPOP", "RPOP", "PING", "ECHO", "SETEX", "SETNX");
+
+    @Test
+    void canRouteCommandsFromBytesWithoutDecoding() {
+        Map<String, IntUnaryOperator> handlers = new LinkedHashMap<>();
+        for (int i = 0; i < COMMANDS.size(); i++) {
+            int id = i;
+            handlers.put(COMMANDS.get(i), n -> n + id);
+        }
+        CommandRouter<IntUnaryOperator> router = CommandRouter.of(handlers, true);
+
+        byte[] frame = "*junk*GET*setex*SetNx*GETX*GE**".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length).put(frame).flip();
+        assertThat(router.route(frame, 6, 9).applyAsInt(100)).isEqualTo(100);
+        assertThat(router.id(frame, 10, 15)).isEqualTo(COMMANDS.indexOf("SETEX"));
+        assertThat(router.id(direct, 16, 21)).isEqualTo(COMMANDS.indexOf("SETNX"));
+        assertThat(router.route(direct, 6, 9)).isSameAs(handlers.get("GET"));
+        assertThat(router.route(frame, 22, 26)).isNull();
+        assertThat(router.route(frame, 27, 29)).isNull();
+        assertThat(router.id(frame, 30, 30)).isEqualTo(-1);
+        assertThat(CommandRouter.of(handlers, false).route("get".getBytes(StandardCharsets.US_ASCII), 0, 3)).isNull();
+
+        for (String command : COMMANDS) {
+            byte[] bytes = command.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            assertThat(router.id(bytes, 0, bytes.length)).isEqualTo(COMMANDS.indexOf(command));
+        }
+        assertThatThrownBy(() -> CommandRouter.of(Map.of("get", 1, "GET", 2), true))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("duplicate");
+
+        // large command sets build too
+        Map<String, Integer> many = new LinkedHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            many.put("CMD" + Integer.toString(i, 36).toUpperCase(Locale.ROOT), i);
+        }
+        CommandRouter<Integer> large = CommandRouter.of(many, true);
+        many.forEach((name, id) -> {
+            byte[] bytes = name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            assertThat(large.id(bytes, 0, bytes.length)).isEqualTo(id);
+        });
+        assertThat(large.id("CMDZZZZ".getBytes(StandardCharsets.US_ASCII), 0, 7)).isEqualTo(-1);
+
+        // routing allocates nothing
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long sum = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            sum += router.id(frame, 10, 15) + router.id(direct, 6, 9);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertThat(sum).isEqualTo(1_000_000L * (COMMANDS.indexOf("SETEX") + COMMANDS.indexOf("GET")));
+        assertThat(allocated).isLessThan(64 * 1024);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canRouteSameIdsAsDecodingCommands() {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < COMMANDS.size(); i++) {
+            ids.put(COMMANDS.get(i), i);
+        }
+        // route ids follow the iteration order, unspecified for a HashMap
+        Map<String, Integer> ordered = new LinkedHashMap<>();
+        COMMANDS.forEach(command -> ordered.put(command, ids.get(command)));
+        CommandRouter<Integer> router = CommandRouter.of(ordered, false);
+
+        // a stream of length-prefixed command names, as read from the network
+        RandomGenerator random = RandomGeneratorFactory.of("L64X128MixRandom").create(46);
+        ByteBuffer input = ByteBuffer.allocate(1 << 22);
+        int count = 0;
+        while (input.remaining() > 16) {
+            byte[] name = COMMANDS.get(random.nextInt(COMMANDS.size())).getBytes(StandardCharsets.US_ASCII);
+            input.put((byte) name.length).put(name);
+            count++;
+        }
+        byte[] bytes = input.array();
+        int end = input.position();
+
+        long[] nanos = new long[3];
+        long[] sums = new long[3];
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int at = 0; at < end; at += 1 + bytes[at]) {
+                sums[0] += switchId(new String(bytes, at + 1, bytes[at], StandardCharsets.US_ASCII));
+            }
+            nanos[0] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int at = 0; at < end; at += 1 + bytes[at]) {
+                sums[1] += ids.get(new String(bytes, at + 1, bytes[at], StandardCharsets.US_ASCII));
+            }
+            nanos[1] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int at = 0; at < end; at += 1 + bytes[at]) {
+                sums[2] += router.id(bytes, at + 1, at + 1 + bytes[at]);
+            }
+            nanos[2] = System.nanoTime() - start;
+        }
+        assertThat(sums[1]).isEqualTo(sums[0]);
+        assertThat(sums[2]).isEqualTo(sums[0]);
+        System.out.printf("CommandRouter: decode + switch %.1f ns, decode + HashMap %.1f ns, router %.1f ns per command%n",
+                (double) nanos[0] / count, (double) nanos[1] / count, (double) nanos[2] / count);
+    }
+
+    private static int switchId(String command) {
+        return switch (command) {
+            case "GET" -> 0;
+            case "SET" -> 1;
+            case "DEL" -> 2;
+            case "INCR" -> 3;
+            case "DECR" -> 4;
+            case "EXISTS" -> 5;
+            case "EXPIRE" -> 6;
+            case "TTL" -> 7;
+            case "MGET" -> 8;
+            case "MSET" -> 9;
+            case "HGET" -> 10;
+            case "HSET" -> 11;
+            case "LPUSH" -> 12;
+            case "RPUSH" -> 13;
+            case "LPOP" -> 14;
+            case "RPOP" -> 15;
+            case "PING" -> 16;
+            case "ECHO" -> 17;
+            case "SETEX" -> 18;
+            case "SETNX" -> 19;
+            default -> -1;
+        };
+    }
+
     // Java 14: Switch Expressions
     @Test
     void canUseSwitchExpression() {
@@ -54,6 +414,127 @@ class Jdk17Tests {
         assertThat(json).contains("\"name\": \"Alice\"");
     }
 
+    @Test
+    void canTokenizeJsonWithoutAllocatingStrings() {
+        byte[] json = """
+                {
+                  "name": "Alice",
+                  "age": 30,
+                  "tags": ["a \\"quoted\\" tag", "caf\\u00e9 à la carte"],
+                  "score": -12.75,
+                  "ratio": 6.02e23,
+                  "active": true,
+                  "manager": null
+                }
+                """.getBytes(StandardCharsets.UTF_8);
+
+        JsonReader reader = new JsonReader(json);
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.BEGIN_OBJECT);
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.FIELD_NAME);
+        assertThat(reader.nameEquals("name".getBytes(StandardCharsets.UTF_8))).isTrue();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.STRING);
+        assertThat(reader.stringValue()).isEqualTo("Alice");
+        reader.next();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.NUMBER);
+        assertThat(reader.longValue()).isEqualTo(30);
+        reader.next();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.BEGIN_ARRAY);
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.STRING);
+        assertThat(reader.stringValue()).isEqualTo("a \"quoted\" tag");
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.STRING);
+        assertThat(reader.stringValue()).isEqualTo("café à la carte");
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.END_ARRAY);
+        reader.next();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.NUMBER);
+        assertThat(reader.doubleValue()).isEqualTo(-12.75);
+        reader.next();
+        reader.next();
+        assertThat(reader.doubleValue()).isEqualTo(6.02e23);
+        reader.next();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.TRUE);
+        reader.next();
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.NULL);
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.END_OBJECT);
+        assertThat(reader.next()).isEqualTo(JsonReader.Token.END_DOCUMENT);
+
+        // the fast path agrees with Double.parseDouble
+        RandomGenerator random = RandomGenerator.of("L64X128MixRandom");
+        for (int i = 0; i < 10_000; i++) {
+            String number = (random.nextBoolean() ? "-" : "") + random.nextLong(1_000_000_000L) + "." + random.nextInt(1_000_000);
+            JsonReader numbers = new JsonReader(number.getBytes(StandardCharsets.US_ASCII));
+            numbers.next();
+            assertThat(numbers.doubleValue()).as(number).isEqualTo(Double.parseDouble(number));
+        }
+    }
+
+    @Test
+    void canBindJsonObjectsToRecords() {
+        byte[] json = """
+                {"id": 7, "owner": {"name": "Alice", "age": 30, "tags": ["admin"], "unknown": {"nested": [1, 2]}},
+                 "amount": 12.5, "items": [{"name": "Bob", "age": 40, "tags": []}], "paid": true}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        JsonReader reader = new JsonReader(ByteBuffer.wrap(json));
+        reader.next();
+        Invoice invoice = reader.bind(Invoice.class);
+
+        assertThat(invoice).isEqualTo(new Invoice(7, new Customer("Alice", 30, List.of("admin")), 12.5,
+                List.of(new Customer("Bob", 40, List.of())), true, null));
+    }
+
+    @Test
+    void canStreamLargeNewlineDelimitedJsonFromMappedWindows() throws Exception {
+        Path file = Files.createTempFile("events", ".ndjson");
+        try {
+            int lines = 200_000;
+            writeEvents(file, lines);
+            long[] countAndAges = bindEvents(file);
+            assertThat(countAndAges[0]).isEqualTo(lines);
+            assertThat(countAndAges[1]).isEqualTo(lines / 100 * 4950L);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canMeasureNewlineDelimitedJsonBindingThroughput() throws Exception {
+        Path file = Files.createTempFile("events", ".ndjson");
+        try {
+            writeEvents(file, 1_000_000);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                assertThat(bindEvents(file)[0]).isEqualTo(1_000_000);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("JsonReader: %.0f MB/s over %d MB%n", Files.size(file) * 1e3 / best, Files.size(file) >> 20);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void writeEvents(Path file, int lines) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < lines; i++) {
+                out.write("{\"name\": \"user-" + i + "\", \"age\": " + (i % 100) + ", \"tags\": [\"t" + (i % 7) + "\"]}\n");
+            }
+        }
+    }
+
+    /** binds every line to a {@link Customer}; returns the number of lines and the sum of the ages */
+    private static long[] bindEvents(Path file) throws IOException {
+        long[] countAndAges = new long[2];
+        // a small window makes lines straddle window boundaries
+        JsonReader.forEachLine(file, 1 << 20, reader -> {
+            reader.next();
+            Customer customer = reader.bind(Customer.class);
+            countAndAges[0]++;
+            countAndAges[1] += customer.age();
+        });
+        return countAndAges;
+    }
+
     // Java 16: Pattern Matching for instanceof
     @Test
     void canUsePatternMatchingInstanceof() {
@@ -87,6 +568,106 @@ class Jdk17Tests {
         assertThat(car.name()).isEqualTo("Tesla");
     }
 
+    @Test
+    void canEncodeRecordHierarchiesInCompactBinary() {
+        Shape drawing = new Group("drawing", Color.RED, List.of(
+                new Circle(new Point(1, -1), 10),
+                new Rect(new Point(0, 0), new Point(1_000_000, -70_000)),
+                new Group("empty", null, List.of()),
+                new Group("nested", Color.BLUE, List.of(new Circle(null, Long.MIN_VALUE)))));
+
+        RecordCodec<Shape> codec = RecordCodec.of(Shape.class);
+        assertThat(RecordCodec.of(Shape.class)).isSameAs(codec);
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        codec.write(drawing, buffer);
+        buffer.flip();
+        assertThat(codec.read(buffer)).isEqualTo(drawing);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        // varints: a small circle takes a tag, a presence byte, two coordinates and a radius
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        codec.write(new Circle(new Point(3, -3), 100), direct);
+        assertThat(direct.position()).isEqualTo(1 + 1 + 1 + 1 + 2);
+        direct.flip();
+        assertThat(codec.read(direct)).isEqualTo(new Circle(new Point(3, -3), 100));
+
+        // boxed components may be null
+        RecordCodec<Reading> readings = RecordCodec.of(Reading.class);
+        Reading reading = new Reading(null, 0.5, Arrays.asList(1L, null, -3L));
+        buffer.clear();
+        readings.write(reading, buffer);
+        readings.write(new Reading(7, null, null), buffer);
+        buffer.flip();
+        assertThat(readings.read(buffer)).isEqualTo(reading);
+        assertThat(readings.read(buffer)).isEqualTo(new Reading(7, null, null));
+
+        // a size larger than the input is rejected before anything is allocated for it
+        ByteBuffer hostile = ByteBuffer.allocate(8);
+        hostile.put((byte) 1).put((byte) 0).put((byte) 0); // a reading without value nor ratio
+        RecordCodec.putVarInt(hostile, Integer.MAX_VALUE);
+        assertThatThrownBy(() -> readings.read(hostile.flip()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("bytes remaining");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canEncodeRecordsSmallerThanObjectOutputStream() throws Exception {
+        List<Trade> trades = new ArrayList<>();
+        RandomGenerator random = RandomGenerator.of("L64X128MixRandom");
+        for (int i = 0; i < 100_000; i++) {
+            trades.add(new Trade(i, "ACME", random.nextInt(10_000), random.nextLong(1_000_000), i % 2 == 0));
+        }
+        RecordCodec<Trade> codec = RecordCodec.of(Trade.class);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * trades.size());
+
+        for (int round = 0; round < 5; round++) {
+            buffer.clear();
+            long start = System.nanoTime();
+            for (Trade trade : trades) {
+                codec.write(trade, buffer);
+            }
+            long codecNanos = System.nanoTime() - start;
+            int codecBytes = buffer.position();
+
+            buffer.flip();
+            for (Trade trade : trades) {
+                assertThat(codec.read(buffer)).isEqualTo(trade);
+            }
+
+            // hand-written: fixed-size fields, no varints
+            buffer.clear();
+            start = System.nanoTime();
+            for (Trade trade : trades) {
+                buffer.putLong(trade.id());
+                byte[] symbol = trade.symbol().getBytes(StandardCharsets.UTF_8);
+                buffer.put((byte) symbol.length).put(symbol);
+                buffer.putInt(trade.quantity()).putLong(trade.priceCents()).put((byte) (trade.buy() ? 1 : 0));
+            }
+            long handNanos = System.nanoTime() - start;
+            int handBytes = buffer.position();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            start = System.nanoTime();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                for (Trade trade : trades) {
+                    out.writeObject(trade);
+                }
+            }
+            long serializationNanos = System.nanoTime() - start;
+
+            assertThat(codecBytes).isLessThan(handBytes).isLessThan(bytes.size());
+            if (round == 4) {
+                System.out.printf("RecordCodec: %.1f bytes, %d ns/record; hand-written: %.1f bytes, %d ns/record; "
+                                + "ObjectOutputStream: %.1f bytes, %d ns/record%n",
+                        (double) codecBytes / trades.size(), codecNanos / trades.size(),
+                        (double) handBytes / trades.size(), handNanos / trades.size(),
+                        (double) bytes.size() / trades.size(), serializationNanos / trades.size());
+            }
+        }
+    }
+
     // Java 17: Enhanced Pseudo-Random Number Generators
     @Test
     void canUseEnhancedPRNG() {
@@ -95,6 +676,35 @@ class Jdk17Tests {
         assertThat(val).isBetween(0, 99);
     }
 
+    record Point(int x, int y) {
+    }
+
+    enum Color {RED, BLUE}
+
+    sealed interface Shape permits Circle, Rect, Group {
+    }
+
+    record Circle(Point center, long radius) implements Shape {
+    }
+
+    record Rect(Point topLeft, Point bottomRight) implements Shape {
+    }
+
+    record Group(String name, Color color, List<Shape> shapes) implements Shape {
+    }
+
+    record Trade(long id, String symbol, int quantity, long priceCents, boolean buy) implements Serializable {
+    }
+
+    record Reading(Integer value, Double ratio, List<Long> samples) {
+    }
+
+    record Customer(String name, int age, List<String> tags) {
+    }
+
+    record Invoice(long id, Customer owner, double amount, List<Customer> items, boolean paid, String note) {
+    }
+
     sealed interface Vehicle permits ElectricCar {
         default String name() {
             return "Vehicle";
@@ -0,0 +1,547 @@
+package com.vspiewak.jdk_features.jdk17;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Pull parser over UTF-8 JSON in a {@link ByteBuffer} (a wrapped {@code byte[]} or a mapped file).
+ * {@link #next()} allocates nothing: a token is a span of the input, compared with {@link #nameEquals}
+ * and only decoded on request. Numbers are parsed lazily, straight from the bytes.
+ * <p>
+ * Strings are scanned 8 bytes at a time (SWAR: one {@code long} read, bit tricks to find a quote or a
+ * backslash in it). The Vector API is still incubating in JDK 17, and structural characters outside
+ * strings are rare enough in typical documents that a scalar loop is fine for them.
+ * <p>
+ * The tokenizer checks nesting but not every separator: it is meant for trusted, well-formed input.
+ */
+public final class JsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long QUOTES = ONES * '"';
+    private static final long BACKSLASHES = ONES * '\\';
+    private static final long NEWLINES = ONES * '\n';
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ByteBuffer in;
+    private int limit;
+    private int pos;
+
+    private Token token;
+    private int start;
+    private int end;
+    private boolean escaped;
+
+    /** true for each open object, false for each open array */
+    private boolean[] scopes = new boolean[32];
+    private int depth;
+    private boolean expectName;
+
+    public JsonReader(ByteBuffer in) {
+        this.in = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.pos = in.position();
+        this.limit = in.limit();
+    }
+
+    public JsonReader(byte[] json) {
+        this(ByteBuffer.wrap(json));
+    }
+
+    public Token next() {
+        skipSeparators();
+        if (pos >= limit) {
+            if (depth != 0) {
+                throw error("unexpected end of input");
+            }
+            return token = Token.END_DOCUMENT;
+        }
+        start = pos;
+        byte b = in.get(pos);
+        switch (b) {
+            case '{' -> {
+                push(true);
+                pos++;
+                return token = Token.BEGIN_OBJECT;
+            }
+            case '[' -> {
+                push(false);
+                pos++;
+                return token = Token.BEGIN_ARRAY;
+            }
+            case '}', ']' -> {
+                if (depth == 0 || scopes[depth - 1] != (b == '}')) {
+                    throw error("unbalanced '" + (char) b + "'");
+                }
+                depth--;
+                expectName = false;
+                pos++;
+                return token = b == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+            case '"' -> {
+                scanString();
+                if (expectName) {
+                    expectName = false;
+                    return token = Token.FIELD_NAME;
+                }
+                return token = Token.STRING;
+            }
+            case 't' -> {
+                return literal("true", Token.TRUE);
+            }
+            case 'f' -> {
+                return literal("false", Token.FALSE);
+            }
+            case 'n' -> {
+                return literal("null", Token.NULL);
+            }
+            default -> {
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    scanNumber();
+                    return token = Token.NUMBER;
+                }
+                throw error("unexpected '" + (char) b + "'");
+            }
+        }
+    }
+
+    public Token token() {
+        return token;
+    }
+
+    /** offset of the current token: after the opening quote for strings and names */
+    public int start() {
+        return start;
+    }
+
+    /** end of the current token, exclusive: before the closing quote for strings and names */
+    public int end() {
+        return end;
+    }
+
+    /** compares the raw bytes of the current name or string, without decoding it */
+    public boolean nameEquals(byte[] name) {
+        if (escaped || end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (in.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String stringValue() {
+        byte[] bytes = new byte[end - start];
+        in.get(start, bytes);
+        if (!escaped) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        StringBuilder s = new StringBuilder(bytes.length);
+        int run = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\\') {
+                continue;
+            }
+            s.append(new String(bytes, run, i - run, StandardCharsets.UTF_8));
+            char c = (char) bytes[++i];
+            switch (c) {
+                case 'n' -> s.append('\n');
+                case 't' -> s.append('\t');
+                case 'r' -> s.append('\r');
+                case 'b' -> s.append('\b');
+                case 'f' -> s.append('\f');
+                case 'u' -> {
+                    s.append((char) Integer.parseInt(new String(bytes, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                }
+                default -> s.append(c);
+            }
+            run = i + 1;
+        }
+        return s.append(new String(bytes, run, bytes.length - run, StandardCharsets.UTF_8)).toString();
+    }
+
+    /** parses an integral number in place; throws {@code NumberFormatException} if it has a fraction or exponent */
+    public long longValue() {
+        int i = start;
+        boolean negative = in.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException(text());
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = in.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(text());
+            }
+            // accumulate negatively so that Long.MIN_VALUE fits
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("overflow: " + text());
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw new NumberFormatException("overflow: " + text());
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Exact fast path when the significand fits in 15 digits and the power of ten is at most 22
+     * (both are then exact doubles, and one multiplication or division rounds correctly);
+     * {@link Double#parseDouble} otherwise.
+     */
+    public double doubleValue() {
+        int i = start;
+        boolean negative = in.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long significand = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte b = in.get(i);
+            if (b >= '0' && b <= '9') {
+                if (significand != 0 || b != '0') {
+                    digits++;
+                }
+                significand = significand * 10 + (b - '0');
+                if (fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end) {
+            byte b = in.get(i);
+            if (b != 'e' && b != 'E') {
+                throw new NumberFormatException(text());
+            }
+            return Double.parseDouble(text());
+        }
+        if (digits > 15 || -scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text());
+        }
+        double value = (double) significand / POWERS_OF_TEN[-scale];
+        return negative ? -value : value;
+    }
+
+    public boolean booleanValue() {
+        return token == Token.TRUE;
+    }
+
+    /** skips the value that starts with the current token, nested values included */
+    public void skipValue() {
+        if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+            int target = depth - 1;
+            while (depth > target) {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Binds the object that starts with the current token into a record: fields are matched to
+     * components by their raw bytes, unknown fields are skipped, missing ones get their default value.
+     */
+    public <R extends Record> R bind(Class<R> type) {
+        return type.cast(RecordBinding.of(type).read(this));
+    }
+
+    /**
+     * Calls {@code action} with a reader on each line of a newline-delimited JSON file. The file is
+     * mapped in windows of at most {@code window} bytes cut at line ends, so it can exceed 2 GB. The
+     * same reader is reset for every line: it is only valid during the call.
+     */
+    public static void forEachLine(Path file, int window, Consumer<JsonReader> action) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            while (offset < size) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(window, size - offset));
+                int cut = mapped.limit();
+                if (offset + cut < size) {
+                    while (cut > 0 && mapped.get(cut - 1) != '\n') {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        throw new IllegalArgumentException("line longer than the window at offset " + offset);
+                    }
+                }
+                JsonReader reader = new JsonReader(mapped);
+                int lineStart = 0;
+                while (lineStart < cut) {
+                    int lineEnd = reader.indexOfNewline(lineStart, cut);
+                    if (lineEnd > lineStart) {
+                        reader.reset(lineStart, lineEnd);
+                        action.accept(reader);
+                    }
+                    lineStart = lineEnd + 1;
+                }
+                offset += cut;
+            }
+        }
+    }
+
+    private void reset(int from, int to) {
+        pos = from;
+        limit = to;
+        depth = 0;
+        expectName = false;
+        token = null;
+    }
+
+    /** index of the first newline in [from, to), or {@code to} */
+    private int indexOfNewline(int from, int to) {
+        int i = from;
+        while (i + Long.BYTES <= to) {
+            long found = zeroBytes(in.getLong(i) ^ NEWLINES);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += Long.BYTES;
+        }
+        while (i < to && in.get(i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    // --- scanning
+
+    private void skipSeparators() {
+        while (pos < limit) {
+            byte b = in.get(pos);
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+            } else if (b == ',') {
+                expectName = depth > 0 && scopes[depth - 1];
+                pos++;
+            } else if (b == ':') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void scanString() {
+        int i = pos + 1;
+        start = i;
+        escaped = false;
+        while (true) {
+            // 8 bytes at a time while no quote or backslash is in sight
+            while (i + Long.BYTES <= limit) {
+                long word = in.getLong(i);
+                long found = zeroBytes(word ^ QUOTES) | zeroBytes(word ^ BACKSLASHES);
+                if (found != 0) {
+                    i += Long.numberOfTrailingZeros(found) >>> 3;
+                    break;
+                }
+                i += Long.BYTES;
+            }
+            while (i < limit && in.get(i) != '"' && in.get(i) != '\\') {
+                i++;
+            }
+            if (i >= limit) {
+                throw error("unterminated string");
+            }
+            if (in.get(i) == '"') {
+                end = i;
+                pos = i + 1;
+                return;
+            }
+            escaped = true;
+            i += 2;
+        }
+    }
+
+    /** high bit set in each zero byte of {@code x}; bits above the lowest may be false positives */
+    private static long zeroBytes(long x) {
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    private void scanNumber() {
+        int i = pos + 1;
+        while (i < limit) {
+            byte b = in.get(i);
+            if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '-' || b == '+') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        end = i;
+        pos = i;
+    }
+
+    private Token literal(String text, Token literal) {
+        if (pos + text.length() > limit) {
+            throw error("unexpected end of input");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (in.get(pos + i) != text.charAt(i)) {
+                throw error("expected " + text);
+            }
+        }
+        pos += text.length();
+        end = pos;
+        return token = literal;
+    }
+
+    private void push(boolean object) {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        }
+        scopes[depth++] = object;
+        expectName = object;
+    }
+
+    private String text() {
+        byte[] bytes = new byte[end - start];
+        in.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    // --- record binding
+
+    private static final class RecordBinding {
+
+        private static final ClassValue<RecordBinding> BINDINGS = new ClassValue<>() {
+            @Override
+            protected RecordBinding computeValue(Class<?> type) {
+                return new RecordBinding(type);
+            }
+        };
+
+        private final byte[][] names;
+        private final Type[] types;
+        private final Object[] defaults;
+        private final MethodHandle constructor;
+
+        static RecordBinding of(Class<?> type) {
+            return BINDINGS.get(type);
+        }
+
+        private RecordBinding(Class<?> type) {
+            RecordComponent[] components = type.getRecordComponents();
+            names = new byte[components.length][];
+            types = new Type[components.length];
+            defaults = new Object[components.length];
+            Class<?>[] raw = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                names[i] = components[i].getName().getBytes(StandardCharsets.UTF_8);
+                types[i] = components[i].getGenericType();
+                raw[i] = components[i].getType();
+                defaults[i] = raw[i].isPrimitive() ? defaultOf(raw[i]) : null;
+            }
+            try {
+                constructor = MethodHandles.privateLookupIn(type, MethodHandles.lookup())
+                        .findConstructor(type, MethodType.methodType(void.class, raw))
+                        .asType(MethodType.genericMethodType(raw.length))
+                        .asSpreader(Object[].class, raw.length);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("cannot access " + type.getName(), e);
+            }
+        }
+
+        Object read(JsonReader reader) {
+            if (reader.token() == Token.NULL) {
+                return null;
+            }
+            if (reader.token() != Token.BEGIN_OBJECT) {
+                throw reader.error("expected an object");
+            }
+            Object[] args = defaults.clone();
+            while (reader.next() == Token.FIELD_NAME) {
+                int component = -1;
+                for (int i = 0; i < names.length; i++) {
+                    if (reader.nameEquals(names[i])) {
+                        component = i;
+                        break;
+                    }
+                }
+                reader.next();
+                if (component < 0) {
+                    reader.skipValue();
+                } else {
+                    args[component] = value(reader, types[component]);
+                }
+            }
+            try {
+                return (Object) constructor.invokeExact(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private static Object value(JsonReader reader, Type type) {
+            if (reader.token() == Token.NULL) {
+                return null;
+            }
+            if (type instanceof ParameterizedType list && list.getRawType() == List.class) {
+                if (reader.token() != Token.BEGIN_ARRAY) {
+                    throw reader.error("expected an array");
+                }
+                List<Object> values = new ArrayList<>();
+                while (reader.next() != Token.END_ARRAY) {
+                    values.add(value(reader, list.getActualTypeArguments()[0]));
+                }
+                return values;
+            }
+            if (type == int.class || type == Integer.class) return Math.toIntExact(reader.longValue());
+            if (type == long.class || type == Long.class) return reader.longValue();
+            if (type == double.class || type == Double.class) return reader.doubleValue();
+            if (type == boolean.class || type == Boolean.class) return reader.booleanValue();
+            if (type == String.class) return reader.stringValue();
+            if (type instanceof Class<?> c && c.isRecord()) return of(c).read(reader);
+            throw new IllegalArgumentException("unsupported type: " + type);
+        }
+
+        private static Object defaultOf(Class<?> primitive) {
+            try {
+                return (Object) MethodHandles.zero(primitive).asType(MethodType.methodType(Object.class)).invokeExact();
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+package com.vspiewak.jdk_features.jdk17;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Thread-safe number formatting backed by a bounded cache of one entry per locale, holding one slot
+ * per kind. Lookups take no lock and allocate nothing; when the cache is full, a locale not used since
+ * the last sweep is evicted (clock, an approximation of LRU).
+ * <p>
+ * {@link NumberFormat} instances are costly to create (resource bundle lookups, pattern parsing)
+ * and not thread-safe: a slot keeps a prototype and a bounded pool of clones, borrowed for each call.
+ * A pool rather than a {@code ThreadLocal}, so that millions of virtual threads do not mean millions
+ * of instances. Instances lent by {@link #with} and returned reconfigured are not pooled again.
+ * <p>
+ * {@code long}s are appended without any {@code NumberFormat} when the entry's fast path (sign
+ * affixes, locale digits and grouping read from the {@link DecimalFormat}) reproduces the
+ * {@code NumberFormat} output on a set of samples, which is checked once when the entry is built.
+ * Compact formats only take the fast path below 1000, where nothing is abbreviated.
+ */
+public final class NumberFormats {
+
+    public enum Kind {
+        NUMBER, COMPACT_SHORT, COMPACT_LONG
+    }
+
+    static final long[] SAMPLES = {
+            0, 1, -1, 7, -7, 12, 999, -999, 1_000, -1_000, 12_345, 1_234_567, -1_234_567,
+            Long.MAX_VALUE, Long.MIN_VALUE};
+
+    /** clones kept per slot; more can be borrowed at once, the extra ones are dropped on release */
+    static final int MAX_POOLED = Runtime.getRuntime().availableProcessors();
+
+    private static final int KINDS = Kind.values().length;
+
+    private final ConcurrentHashMap<Locale, Slots> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final int maxLocales;
+
+    public NumberFormats(int maxLocales) {
+        if (maxLocales < 1) {
+            throw new IllegalArgumentException("maxLocales must be positive: " + maxLocales);
+        }
+        this.maxLocales = maxLocales;
+    }
+
+    public String format(long value, Locale locale, Kind kind) {
+        return formatTo(value, locale, kind, new StringBuilder(24)).toString();
+    }
+
+    /** appends to {@code out}; allocates nothing on the fast path */
+    public StringBuilder formatTo(long value, Locale locale, Kind kind, StringBuilder out) {
+        Cached entry = entry(locale, kind);
+        if (entry.fast(value)) {
+            return entry.append(value, out);
+        }
+        NumberFormat format = entry.borrow();
+        try {
+            return out.append(format.format(value));
+        } finally {
+            entry.release(format, false);
+        }
+    }
+
+    /** lends a pooled instance, e.g. to format decimals; it must not escape {@code action} */
+    public <T> T with(Locale locale, Kind kind, Function<? super NumberFormat, T> action) {
+        Cached entry = entry(locale, kind);
+        NumberFormat format = entry.borrow();
+        try {
+            return action.apply(format);
+        } finally {
+            entry.release(format, true);
+        }
+    }
+
+    /** whether {@code long}s of this locale and kind take the fast path */
+    public boolean hasFastPath(Locale locale, Kind kind) {
+        return entry(locale, kind).verified;
+    }
+
+    /** number of cached locales */
+    public int size() {
+        return entries.size();
+    }
+
+    private Cached entry(Locale locale, Kind kind) {
+        Slots slots = entries.get(locale);
+        if (slots == null) {
+            Slots raced = entries.putIfAbsent(locale, slots = new Slots());
+            if (raced != null) {
+                slots = raced;
+            } else if (entries.size() > maxLocales) {
+                evict(slots);
+            }
+        }
+        if (!slots.used) {
+            // written only when it changes, so that hot locales do not keep dirtying the cache line
+            slots.used = true;
+        }
+        Cached entry = slots.byKind.get(kind.ordinal());
+        if (entry != null) {
+            return entry;
+        }
+        // two threads may build the same entry, the first one set wins
+        Cached built = new Cached(create(locale, kind), NumberFormat.getIntegerInstance(locale), kind);
+        Cached raced = slots.byKind.compareAndExchange(kind.ordinal(), null, built);
+        return raced != null ? raced : built;
+    }
+
+    /** clock sweep: clears the used flags it passes and removes the first locale found without one */
+    private void evict(Slots added) {
+        evictLock.lock();
+        try {
+            while (entries.size() > maxLocales) {
+                Iterator<Slots> it = entries.values().iterator();
+                while (it.hasNext() && entries.size() > maxLocales) {
+                    Slots slots = it.next();
+                    if (slots == added) {
+                        continue;
+                    }
+                    if (slots.used) {
+                        slots.used = false;
+                    } else {
+                        it.remove();
+                    }
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    static NumberFormat create(Locale locale, Kind kind) {
+        return switch (kind) {
+            case NUMBER -> NumberFormat.getIntegerInstance(locale);
+            case COMPACT_SHORT -> NumberFormat.getCompactNumberInstance(locale, NumberFormat.Style.SHORT);
+            case COMPACT_LONG -> NumberFormat.getCompactNumberInstance(locale, NumberFormat.Style.LONG);
+        };
+    }
+
+    private static final class Slots {
+
+        final AtomicReferenceArray<Cached> byKind = new AtomicReferenceArray<>(KINDS);
+        /** racy on purpose: a lost update only makes the sweep less accurate */
+        boolean used = true;
+    }
+
+    private static final class Cached {
+
+        private final NumberFormat prototype;
+        private final ConcurrentLinkedQueue<NumberFormat> pool = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+        private final long fastLimit;
+
+        private String positivePrefix = "";
+        private String positiveSuffix = "";
+        private String negativePrefix = "";
+        private String negativeSuffix = "";
+        private char zeroDigit = '0';
+        private char groupingSeparator;
+        private int groupingSize;
+        private final boolean verified;
+
+        Cached(NumberFormat prototype, NumberFormat integers, Kind kind) {
+            this.prototype = prototype;
+            this.fastLimit = kind == Kind.NUMBER ? Long.MAX_VALUE : 999;
+            boolean supported = integers instanceof DecimalFormat;
+            if (supported) {
+                DecimalFormat decimal = (DecimalFormat) integers;
+                DecimalFormatSymbols symbols = decimal.getDecimalFormatSymbols();
+                positivePrefix = decimal.getPositivePrefix();
+                positiveSuffix = decimal.getPositiveSuffix();
+                negativePrefix = decimal.getNegativePrefix();
+                negativeSuffix = decimal.getNegativeSuffix();
+                zeroDigit = symbols.getZeroDigit();
+                // compact formats do not group below 1000 anyway
+                groupingSize = kind == Kind.NUMBER && decimal.isGroupingUsed() ? decimal.getGroupingSize() : 0;
+                groupingSeparator = symbols.getGroupingSeparator();
+            }
+            this.verified = supported && matchesSamples();
+        }
+
+        private boolean matchesSamples() {
+            StringBuilder out = new StringBuilder();
+            for (long sample : SAMPLES) {
+                if (inRange(sample)) {
+                    out.setLength(0);
+                    if (!append(sample, out).toString().equals(prototype.format(sample))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean inRange(long value) {
+            return fastLimit == Long.MAX_VALUE || (value >= -fastLimit && value <= fastLimit);
+        }
+
+        boolean fast(long value) {
+            return verified && inRange(value);
+        }
+
+        /** digits are written backwards into the builder, computed on the negative value so MIN_VALUE works */
+        StringBuilder append(long value, StringBuilder out) {
+            boolean negative = value < 0;
+            long n = negative ? value : -value;
+            int digits = 1;
+            for (long m = n / 10; m != 0; m /= 10) {
+                digits++;
+            }
+            int separators = groupingSize > 0 ? (digits - 1) / groupingSize : 0;
+
+            out.append(negative ? negativePrefix : positivePrefix);
+            int end = out.length() + digits + separators;
+            out.setLength(end);
+            int at = end;
+            for (int i = 0; i < digits; i++) {
+                if (i > 0 && groupingSize > 0 && i % groupingSize == 0) {
+                    out.setCharAt(--at, groupingSeparator);
+                }
+                out.setCharAt(--at, (char) (zeroDigit - (int) (n % 10)));
+                n /= 10;
+            }
+            return out.append(negative ? negativeSuffix : positiveSuffix);
+        }
+
+        NumberFormat borrow() {
+            NumberFormat format = pool.poll();
+            if (format == null) {
+                return (NumberFormat) prototype.clone();
+            }
+            pooled.decrementAndGet();
+            return format;
+        }
+
+        /** {@code lent}: the caller may have changed the settings, so it is only kept if still equal to the prototype */
+        void release(NumberFormat format, boolean lent) {
+            if (lent && !format.equals(prototype)) {
+                return;
+            }
+            if (pooled.incrementAndGet() <= MAX_POOLED) {
+                pool.offer(format);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+
+}
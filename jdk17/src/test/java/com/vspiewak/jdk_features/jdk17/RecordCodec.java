@@ -0,0 +1,583 @@
+package com.vspiewak.jdk_features.jdk17;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary codec for records, built once per type from {@link Class#getRecordComponents()}: accessors
+ * and canonical constructors become {@link MethodHandle}s, so no reflection happens per value.
+ * <p>
+ * Supported components: primitives and their boxes, {@code String}, {@code byte[]}, enums, records,
+ * sealed interfaces whose permitted subtypes are records or sealed interfaces (written as a tag, the
+ * index of the record among the flattened permitted subtypes, then the record), and {@code List}s of
+ * any of these. Integral values are zigzag varints, so small values take one byte. Strings, arrays,
+ * enums, records and lists may be {@code null}: their length, ordinal or tag is written plus one, and
+ * zero means {@code null}. Boxed primitives and records outside a sealed hierarchy are preceded by a
+ * presence byte instead.
+ * <p>
+ * Lengths read from the input are checked against the bytes remaining, so a corrupt or hostile size
+ * fails with {@code IllegalArgumentException} before anything is allocated for it.
+ * <p>
+ * The schema is the declaration order of components and permitted subtypes: there is no versioning.
+ */
+public final class RecordCodec<T> {
+
+    private static final ClassValue<RecordCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected RecordCodec<?> computeValue(Class<?> type) {
+            return new RecordCodec<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final Node root;
+
+    private RecordCodec(Class<T> type) {
+        this.type = type;
+        this.root = node(type, new HashMap<>());
+    }
+
+    /** codec for a record class or a sealed interface, built once */
+    @SuppressWarnings("unchecked")
+    public static <T> RecordCodec<T> of(Class<T> type) {
+        return (RecordCodec<T>) CODECS.get(type);
+    }
+
+    /** throws {@code BufferOverflowException} when {@code out} is too small, with its position undefined */
+    public void write(T value, ByteBuffer out) {
+        try {
+            root.write(value, out);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public T read(ByteBuffer in) {
+        try {
+            return type.cast(root.read(in));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // --- schema
+
+    private static Node node(Type type, Map<Class<?>, Node> building) {
+        if (type instanceof ParameterizedType parameterized && parameterized.getRawType() == List.class) {
+            return new ListNode(node(parameterized.getActualTypeArguments()[0], building));
+        }
+        if (!(type instanceof Class<?> c)) {
+            throw new IllegalArgumentException("unsupported type: " + type);
+        }
+        Node known = building.get(c);
+        if (known != null) {
+            return known; // recursive type
+        }
+        // Integer.class and int.class both map to int.class
+        Node primitive = primitive(MethodType.methodType(c).unwrap().returnType());
+        if (primitive != null) {
+            return c.isPrimitive() ? primitive : new NullableNode(primitive);
+        }
+        if (c == String.class) return STRING;
+        if (c == byte[].class) return BYTES;
+        if (c.isEnum()) return new EnumNode(c.getEnumConstants());
+        if (c.isRecord()) {
+            RecordNode node = new RecordNode();
+            NullableNode nullable = new NullableNode(node);
+            building.put(c, nullable);
+            node.resolve(c, building);
+            return nullable;
+        }
+        if (c.isSealed()) {
+            SealedNode node = new SealedNode();
+            building.put(c, node);
+            node.resolve(c, building);
+            return node;
+        }
+        throw new IllegalArgumentException("unsupported type: " + c.getName());
+    }
+
+    private static Node primitive(Class<?> c) {
+        if (c == int.class) return INT;
+        if (c == long.class) return LONG;
+        if (c == short.class) return SHORT;
+        if (c == byte.class) return BYTE;
+        if (c == char.class) return CHAR;
+        if (c == boolean.class) return BOOLEAN;
+        if (c == float.class) return FLOAT;
+        if (c == double.class) return DOUBLE;
+        return null;
+    }
+
+    private abstract static class Node {
+        abstract void write(Object value, ByteBuffer out) throws Throwable;
+
+        abstract Object read(ByteBuffer in) throws Throwable;
+    }
+
+    private static final class RecordNode extends Node {
+        private Field[] fields;
+        private MethodHandle constructor;
+
+        void resolve(Class<?> type, Map<Class<?>, Node> building) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] types = new Class<?>[components.length];
+                Field[] fields = new Field[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    types[i] = components[i].getType();
+                    MethodHandle accessor = lookup.unreflect(components[i].getAccessor());
+                    if (types[i] == int.class) {
+                        fields[i] = new IntField(accessor.asType(MethodType.methodType(int.class, Object.class)));
+                    } else if (types[i] == long.class) {
+                        fields[i] = new LongField(accessor.asType(MethodType.methodType(long.class, Object.class)));
+                    } else {
+                        fields[i] = new ObjectField(accessor.asType(MethodType.methodType(Object.class, Object.class)),
+                                node(components[i].getGenericType(), building));
+                    }
+                }
+                this.fields = fields;
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, types))
+                        .asType(MethodType.genericMethodType(types.length))
+                        .asSpreader(Object[].class, types.length);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("cannot access " + type.getName(), e);
+            }
+        }
+
+        @Override
+        void write(Object value, ByteBuffer out) throws Throwable {
+            for (Field field : fields) {
+                field.write(value, out);
+            }
+        }
+
+        @Override
+        Object read(ByteBuffer in) throws Throwable {
+            Object[] args = new Object[fields.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = fields[i].read(in);
+            }
+            return (Object) constructor.invokeExact(args);
+        }
+    }
+
+    /** presence byte before a boxed primitive, or a record that is not part of a sealed hierarchy */
+    private static final class NullableNode extends Node {
+        private final Node node;
+
+        NullableNode(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        void write(Object value, ByteBuffer out) throws Throwable {
+            out.put((byte) (value == null ? 0 : 1));
+            if (value != null) {
+                node.write(value, out);
+            }
+        }
+
+        @Override
+        Object read(ByteBuffer in) throws Throwable {
+            return in.get() == 0 ? null : node.read(in);
+        }
+    }
+
+    private static final class SealedNode extends Node {
+        private final List<Class<?>> types = new ArrayList<>();
+        private final List<RecordNode> nodes = new ArrayList<>();
+        private final ClassValue<Integer> tags = new ClassValue<>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                int tag = types.indexOf(type);
+                if (tag < 0) {
+                    throw new IllegalArgumentException("not a permitted subtype: " + type.getName());
+                }
+                return tag;
+            }
+        };
+
+        void resolve(Class<?> sealed, Map<Class<?>, Node> building) {
+            for (Class<?> permitted : sealed.getPermittedSubclasses()) {
+                if (permitted.isRecord()) {
+                    RecordNode node = new RecordNode();
+                    types.add(permitted);
+                    nodes.add(node);
+                    node.resolve(permitted, building);
+                } else if (permitted.isSealed() && permitted.isInterface()) {
+                    resolve(permitted, building);
+                } else {
+                    throw new IllegalArgumentException("permitted subtype is neither a record nor a sealed interface: "
+                            + permitted.getName());
+                }
+            }
+        }
+
+        @Override
+        void write(Object value, ByteBuffer out) throws Throwable {
+            if (value == null) {
+                putVarInt(out, 0);
+                return;
+            }
+            int tag = tags.get(value.getClass());
+            putVarInt(out, tag + 1);
+            nodes.get(tag).write(value, out);
+        }
+
+        @Override
+        Object read(ByteBuffer in) throws Throwable {
+            int tag = getVarInt(in);
+            return tag == 0 ? null : nodes.get(tag - 1).read(in);
+        }
+    }
+
+    private static final class ListNode extends Node {
+        private final Node element;
+
+        ListNode(Node element) {
+            this.element = element;
+        }
+
+        @Override
+        void write(Object value, ByteBuffer out) throws Throwable {
+            if (value == null) {
+                putVarInt(out, 0);
+                return;
+            }
+            List<?> list = (List<?>) value;
+            putVarInt(out, list.size() + 1);
+            for (Object e : list) {
+                element.write(e, out);
+            }
+        }
+
+        @Override
+        Object read(ByteBuffer in) throws Throwable {
+            // every element takes at least one byte
+            int size = getLength(in);
+            if (size < 0) {
+                return null;
+            }
+            List<Object> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(element.read(in));
+            }
+            return list;
+        }
+    }
+
+    private static final class EnumNode extends Node {
+        private final Object[] constants;
+
+        EnumNode(Object[] constants) {
+            this.constants = constants;
+        }
+
+        @Override
+        void write(Object value, ByteBuffer out) {
+            putVarInt(out, value == null ? 0 : ((Enum<?>) value).ordinal() + 1);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            int ordinal = getVarInt(in);
+            return ordinal == 0 ? null : constants[ordinal - 1];
+        }
+    }
+
+    private static final Node STRING = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            if (value == null) {
+                putVarInt(out, 0);
+                return;
+            }
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            putVarInt(out, bytes.length + 1);
+            out.put(bytes);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            int length = getLength(in);
+            if (length < 0) {
+                return null;
+            }
+            if (!in.hasArray()) {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+    };
+
+    private static final Node BYTES = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            if (value == null) {
+                putVarInt(out, 0);
+                return;
+            }
+            putVarInt(out, ((byte[]) value).length + 1);
+            out.put((byte[]) value);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            int length = getLength(in);
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            in.get(value);
+            return value;
+        }
+    };
+
+    private static final Node INT = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            putVarInt(out, zigzag((Integer) value));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return unzigzag(getVarInt(in));
+        }
+    };
+
+    private static final Node LONG = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            putVarLong(out, zigzag((Long) value));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return unzigzag(getVarLong(in));
+        }
+    };
+
+    private static final Node SHORT = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            putVarInt(out, zigzag((Short) value));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return (short) unzigzag(getVarInt(in));
+        }
+    };
+
+    private static final Node CHAR = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            putVarInt(out, (Character) value);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return (char) getVarInt(in);
+        }
+    };
+
+    private static final Node BYTE = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            out.put((Byte) value);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return in.get();
+        }
+    };
+
+    private static final Node BOOLEAN = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            out.put((byte) ((Boolean) value ? 1 : 0));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return in.get() != 0;
+        }
+    };
+
+    private static final Node FLOAT = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            out.putFloat((Float) value);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return in.getFloat();
+        }
+    };
+
+    private static final Node DOUBLE = new Node() {
+        @Override
+        void write(Object value, ByteBuffer out) {
+            out.putDouble((Double) value);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return in.getDouble();
+        }
+    };
+
+    // --- record components; int and long are read from the record without boxing
+
+    private abstract static class Field {
+        abstract void write(Object record, ByteBuffer out) throws Throwable;
+
+        abstract Object read(ByteBuffer in) throws Throwable;
+    }
+
+    private static final class IntField extends Field {
+        private final MethodHandle accessor;
+
+        IntField(MethodHandle accessor) {
+            this.accessor = accessor;
+        }
+
+        @Override
+        void write(Object record, ByteBuffer out) throws Throwable {
+            putVarInt(out, zigzag((int) accessor.invokeExact(record)));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return unzigzag(getVarInt(in));
+        }
+    }
+
+    private static final class LongField extends Field {
+        private final MethodHandle accessor;
+
+        LongField(MethodHandle accessor) {
+            this.accessor = accessor;
+        }
+
+        @Override
+        void write(Object record, ByteBuffer out) throws Throwable {
+            putVarLong(out, zigzag((long) accessor.invokeExact(record)));
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return unzigzag(getVarLong(in));
+        }
+    }
+
+    private static final class ObjectField extends Field {
+        private final MethodHandle accessor;
+        private final Node node;
+
+        ObjectField(MethodHandle accessor, Node node) {
+            this.accessor = accessor;
+            this.node = node;
+        }
+
+        @Override
+        void write(Object record, ByteBuffer out) throws Throwable {
+            node.write((Object) accessor.invokeExact(record), out);
+        }
+
+        @Override
+        Object read(ByteBuffer in) throws Throwable {
+            return node.read(in);
+        }
+    }
+
+    // --- varints
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /** a length written plus one, -1 for {@code null}; never more than the bytes remaining */
+    static int getLength(ByteBuffer in) {
+        int length = getVarInt(in) - 1;
+        if (length < -1 || length > in.remaining()) {
+            throw new IllegalArgumentException("length " + length + " with " + in.remaining() + " bytes remaining");
+        }
+        return length;
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.vspiewak.jdk_features.jdk17;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/**
+ * Bulk code point counting, validation and grapheme-safe truncation over UTF-8 {@code byte[]}s and
+ * {@code String}s. Bytes are read as {@code long}s through a byte array view: ASCII runs are skipped
+ * 16 bytes per step, and per-sequence decoding only happens around multibyte sequences.
+ * <p>
+ * Truncation decides most cuts locally: below U+0300 every character is a grapheme cluster of its own,
+ * except CR LF. Anything else (combining marks, emoji ZWJ sequences, flags, Hangul) is left to a
+ * {@link BreakIterator}, which follows the extended grapheme cluster rules since Java 20.
+ */
+public final class Utf8Kernels {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /** lead bytes below this one encode code points below U+0300 */
+    private static final int COMBINING_LEAD = 0xCC;
+    private static final int WINDOW = 64;
+
+    private Utf8Kernels() {
+    }
+
+    /**
+     * Counts the code points starting in {@code [from, to)} of valid UTF-8, i.e. the bytes that are not
+     * continuation bytes ({@code 10xxxxxx}): 8 bytes at a time, bit 7 set and bit 6 clear.
+     */
+    public static int codePointCount(byte[] utf8, int from, int to) {
+        int count = to - from;
+        int i = from;
+        for (; i + 2 * Long.BYTES <= to; i += 2 * Long.BYTES) {
+            long a = (long) LONGS.get(utf8, i);
+            long b = (long) LONGS.get(utf8, i + Long.BYTES);
+            if (((a | b) & HIGH_BITS) != 0) {
+                count -= Long.bitCount(a & ~(a << 1) & HIGH_BITS) + Long.bitCount(b & ~(b << 1) & HIGH_BITS);
+            }
+        }
+        for (; i < to; i++) {
+            if ((utf8[i] & 0xC0) == 0x80) {
+                count--;
+            }
+        }
+        return count;
+    }
+
+    public static boolean isValid(byte[] utf8, int from, int to) {
+        return invalidAt(utf8, from, to) < 0;
+    }
+
+    /**
+     * Returns the index of the first byte of the first ill-formed sequence, or -1: overlong forms,
+     * surrogates, code points above U+10FFFF and truncated sequences are all rejected (Unicode table 3-7).
+     */
+    public static int invalidAt(byte[] utf8, int from, int to) {
+        int i = from;
+        while (i < to) {
+            if (i + 2 * Long.BYTES <= to
+                    && (((long) LONGS.get(utf8, i) | (long) LONGS.get(utf8, i + Long.BYTES)) & HIGH_BITS) == 0) {
+                i += 2 * Long.BYTES;
+                continue;
+            }
+            if (i + Long.BYTES <= to && ((long) LONGS.get(utf8, i) & HIGH_BITS) == 0) {
+                i += Long.BYTES;
+                continue;
+            }
+            int lead = utf8[i] & 0xFF;
+            if (lead < 0x80) {
+                i++;
+                continue;
+            }
+            int length;
+            int min = 0x80;
+            int max = 0xBF;
+            if (lead < 0xC2) {
+                return i;
+            } else if (lead < 0xE0) {
+                length = 2;
+            } else if (lead < 0xF0) {
+                length = 3;
+                if (lead == 0xE0) {
+                    min = 0xA0;
+                } else if (lead == 0xED) {
+                    max = 0x9F;
+                }
+            } else if (lead < 0xF5) {
+                length = 4;
+                if (lead == 0xF0) {
+                    min = 0x90;
+                } else if (lead == 0xF4) {
+                    max = 0x8F;
+                }
+            } else {
+                return i;
+            }
+            if (i + 1 >= to) {
+                return i;
+            }
+            int second = utf8[i + 1] & 0xFF;
+            if (second < min || second > max) {
+                return i;
+            }
+            for (int k = 2; k < length; k++) {
+                if (i + k >= to || (utf8[i + k] & 0xC0) != 0x80) {
+                    return i;
+                }
+            }
+            i += length;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the end of the longest prefix of {@code [from, to)} of at most {@code maxBytes} bytes that
+     * splits neither a code point nor a grapheme cluster.
+     */
+    public static int truncate(byte[] utf8, int from, int to, int maxBytes) {
+        if (to - from <= maxBytes) {
+            return to;
+        }
+        int cut = from + maxBytes;
+        while (cut > from && isContinuation(utf8[cut])) {
+            cut--;
+        }
+        if (cut == from) {
+            return from;
+        }
+        int previous = cut - 1;
+        while (previous > from && isContinuation(utf8[previous])) {
+            previous--;
+        }
+        if ((utf8[cut] & 0xFF) < COMBINING_LEAD && (utf8[previous] & 0xFF) < COMBINING_LEAD
+                && !(utf8[previous] == '\r' && utf8[cut] == '\n')) {
+            return cut;
+        }
+
+        // decode a window around the cut, wider whenever its start might be inside the same cluster
+        int end = Math.min(to, cut + WINDOW);
+        while (end < to && isContinuation(utf8[end])) {
+            end--;
+        }
+        for (int window = WINDOW; ; window *= 2) {
+            int start = Math.max(from, cut - window);
+            while (start > from && isContinuation(utf8[start])) {
+                start--;
+            }
+            String text = new String(utf8, start, end - start, StandardCharsets.UTF_8);
+            int boundary = boundaryAtOrBefore(text, utf16Length(utf8, start, cut));
+            if (boundary > 0 || start == from) {
+                return start + utf8Length(text, 0, boundary);
+            }
+        }
+    }
+
+    /** number of bytes {@code s} takes in UTF-8, without encoding it */
+    public static int utf8Length(CharSequence s) {
+        return utf8Length(s, 0, s.length());
+    }
+
+    static int utf8Length(CharSequence s, int from, int to) {
+        int length = to - from;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    length += 2;
+                    i++;
+                } else {
+                    // unpaired surrogates are encoded as a 1-byte replacement
+                    length += Character.isSurrogate(c) ? 0 : 2;
+                }
+            }
+        }
+        return length;
+    }
+
+    /** longest prefix of {@code s} that fits in {@code maxBytes} of UTF-8 without splitting a grapheme cluster */
+    public static String truncate(String s, int maxBytes) {
+        int bytes = 0;
+        int cut = 0;
+        int length = s.length();
+        while (cut < length) {
+            char c = s.charAt(cut);
+            int chars = Character.isHighSurrogate(c) && cut + 1 < length && Character.isLowSurrogate(s.charAt(cut + 1)) ? 2 : 1;
+            int size = chars == 2 ? 4 : c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 1 : 3;
+            if (bytes + size > maxBytes) {
+                break;
+            }
+            bytes += size;
+            cut += chars;
+        }
+        if (cut == length || cut == 0) {
+            return s.substring(0, cut);
+        }
+        char previous = s.charAt(cut - 1);
+        char next = s.charAt(cut);
+        if (previous < 0x300 && next < 0x300 && !(previous == '\r' && next == '\n')) {
+            return s.substring(0, cut);
+        }
+        return s.substring(0, boundaryAtOrBefore(s, cut));
+    }
+
+    private static int boundaryAtOrBefore(String text, int index) {
+        BreakIterator graphemes = BreakIterator.getCharacterInstance(Locale.ROOT);
+        graphemes.setText(text);
+        return graphemes.isBoundary(index) ? index : graphemes.preceding(index);
+    }
+
+    /** chars the valid UTF-8 in {@code [from, to)} decodes to */
+    private static int utf16Length(byte[] utf8, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            int b = utf8[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                length += b >= 0xF0 ? 2 : 1;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+}
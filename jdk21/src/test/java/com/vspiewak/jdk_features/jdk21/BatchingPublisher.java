@@ -0,0 +1,320 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link java.util.concurrent.SubmissionPublisher} alternative: every subscriber gets a bounded buffer
+ * and its own virtual thread, which hands over whatever is buffered, up to {@code maxBatch} items, in a
+ * single {@code onNext}. A slow subscriber parks its virtual thread instead of holding a pool thread, and
+ * batching pays the handoff once per batch rather than once per item.
+ * <p>
+ * Demand is counted in batches. Each buffer is a ring with a single producer, publishers taking turns
+ * under a {@link ReentrantLock}, and a single consumer: handing over an item costs a volatile write,
+ * and threads park only when a buffer is empty or full. Nothing waits on a monitor, so a subscriber
+ * never pins its carrier thread.
+ */
+public class BatchingPublisher<T> implements Flow.Publisher<List<T>>, AutoCloseable {
+
+    /** state of one subscriber: items waiting in its buffer, age of the oldest one, and totals */
+    public record Lag(int buffered, Duration oldest, long delivered, long batches, long dropped) {
+    }
+
+    private final int capacity;
+    private final int maxBatch;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    /** one publishing thread at a time, so that each buffer has a single producer */
+    private final ReentrantLock submitting = new ReentrantLock();
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /** {@code capacity} is rounded up to a power of two */
+    public BatchingPublisher(int capacity, int maxBatch) {
+        this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.maxBatch = maxBatch;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        if (closed) {
+            subscriber.onSubscribe(subscription);
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+            return;
+        }
+        subscriptions.add(subscription);
+        Thread.ofVirtual().name("batching-publisher-subscriber").start(subscription::deliver);
+    }
+
+    /**
+     * Buffers {@code item} for every subscriber, waiting for room in full buffers. Returns the largest
+     * number of items buffered for a subscriber.
+     */
+    public int submit(T item) throws InterruptedException {
+        long now = System.nanoTime();
+        int lag = 0;
+        submitting.lockInterruptibly();
+        try {
+            checkOpen();
+            for (Subscription subscription : subscriptions) {
+                lag = Math.max(lag, subscription.put(item, now, Long.MAX_VALUE));
+            }
+        } finally {
+            submitting.unlock();
+        }
+        return lag;
+    }
+
+    public int offer(T item, BiPredicate<Flow.Subscriber<? super List<T>>, ? super T> onDrop) throws InterruptedException {
+        return offer(item, 0, TimeUnit.NANOSECONDS, onDrop);
+    }
+
+    /**
+     * Like {@link java.util.concurrent.SubmissionPublisher#offer(Object, long, TimeUnit, BiPredicate)}:
+     * a subscriber whose buffer is still full after {@code timeout} has the item dropped, unless
+     * {@code onDrop} returns true, in which case it is retried once. Returns the negated number of
+     * drops if any, else the largest number of items buffered for a subscriber.
+     */
+    public int offer(T item, long timeout, TimeUnit unit, BiPredicate<Flow.Subscriber<? super List<T>>, ? super T> onDrop)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long now = System.nanoTime();
+        int lag = 0;
+        int drops = 0;
+        submitting.lockInterruptibly();
+        try {
+            checkOpen();
+            for (Subscription subscription : subscriptions) {
+                int buffered = subscription.put(item, now, nanos);
+                if (buffered < 0 && onDrop != null && onDrop.test(subscription.subscriber, item)) {
+                    buffered = subscription.put(item, now, 0);
+                }
+                if (buffered < 0) {
+                    subscription.dropped();
+                    drops++;
+                } else {
+                    lag = Math.max(lag, buffered);
+                }
+            }
+        } finally {
+            submitting.unlock();
+        }
+        return drops > 0 ? -drops : lag;
+    }
+
+    public Map<Flow.Subscriber<? super List<T>>, Lag> lags() {
+        return subscriptions.stream().collect(Collectors.toMap(s -> s.subscriber, Subscription::lag));
+    }
+
+    public int numberOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Subscribers receive what is already buffered, then {@code onComplete}. Waits for a {@code submit}
+     * or {@code offer} in progress, so that an item accepted is never silently left out.
+     */
+    @Override
+    public void close() {
+        submitting.lock();
+        try {
+            closed = true;
+        } finally {
+            submitting.unlock();
+        }
+        subscriptions.forEach(Subscription::wake);
+    }
+
+    /** subscribers receive what is already buffered, then {@code onError} */
+    public void closeExceptionally(Throwable error) {
+        failure = error;
+        close();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("publisher closed");
+        }
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        final Flow.Subscriber<? super List<T>> subscriber;
+
+        private final Object[] items = new Object[capacity];
+        private final long[] stamps = new long[capacity];
+        /** written by the subscriber thread only */
+        private volatile long head;
+        /** written under {@link #submitting} only */
+        private volatile long tail;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        /** the subscriber thread, while it parks for items or demand */
+        private volatile Thread consumer;
+        /** the publishing thread, while it parks for room */
+        private volatile Thread producer;
+        private volatile long delivered;
+        private volatile long batches;
+        private volatile long dropped;
+
+        Subscription(Flow.Subscriber<? super List<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Returns the number of buffered items, or -1 if there was no room within {@code nanos}. Called
+         * under {@link #submitting}, so that there is a single producer.
+         */
+        int put(T item, long stamp, long nanos) throws InterruptedException {
+            long t = tail;
+            if (t - head == capacity) {
+                long deadline = System.nanoTime() + nanos;
+                producer = Thread.currentThread();
+                try {
+                    while (t - head == capacity && !cancelled) {
+                        if (nanos <= 0) {
+                            return -1;
+                        }
+                        if (nanos == Long.MAX_VALUE) {
+                            LockSupport.park(this);
+                        } else {
+                            LockSupport.parkNanos(this, nanos);
+                            nanos = deadline - System.nanoTime();
+                        }
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                } finally {
+                    producer = null;
+                }
+            }
+            if (cancelled) {
+                return 0;
+            }
+            int slot = (int) (t & (capacity - 1));
+            items[slot] = item;
+            stamps[slot] = stamp;
+            tail = t + 1;
+            unpark(consumer);
+            return (int) (t + 1 - head);
+        }
+
+        void dropped() {
+            dropped++;
+        }
+
+        void wake() {
+            unpark(consumer);
+        }
+
+        /** a snapshot that may be slightly stale while items flow */
+        Lag lag() {
+            long h = head;
+            int buffered = (int) (tail - h);
+            Duration oldest = buffered <= 0 ? Duration.ZERO
+                    : Duration.ofNanos(System.nanoTime() - stamps[(int) (h & (capacity - 1))]);
+            return new Lag(Math.max(0, buffered), oldest, delivered, batches, dropped);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+            }
+            unpark(consumer);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            unpark(consumer);
+            unpark(producer);
+            subscriptions.remove(this);
+        }
+
+        /** the loop of the subscriber's virtual thread */
+        void deliver() {
+            try {
+                subscriber.onSubscribe(this);
+                while (!cancelled) {
+                    Throwable error = invalidRequest;
+                    if (error != null) {
+                        cancel();
+                        subscriber.onError(error);
+                        return;
+                    }
+                    // closed is read before tail: items put before close are delivered first
+                    boolean complete = closed;
+                    long h = head;
+                    long t = tail;
+                    if (h != t && demand.get() > 0) {
+                        subscriber.onNext(take(h, t));
+                    } else if (h == t && complete) {
+                        subscriptions.remove(this);
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        return;
+                    } else {
+                        consumer = Thread.currentThread();
+                        // puts, requests and close may have happened before consumer was set; buffered
+                        // items wait for demand even once closed
+                        if (!cancelled && invalidRequest == null && !(tail != head ? demand.get() > 0 : closed)) {
+                            LockSupport.park(this);
+                        }
+                        consumer = null;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // a throwing subscriber is cancelled, as the reactive streams rules ask
+                cancel();
+                subscriber.onError(e);
+            }
+        }
+
+        private List<T> take(long h, long t) {
+            int size = (int) Math.min(maxBatch, t - h);
+            List<T> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int slot = (int) ((h + i) & (capacity - 1));
+                @SuppressWarnings("unchecked")
+                T item = (T) items[slot];
+                batch.add(item);
+                items[slot] = null;
+            }
+            head = h + size;
+            unpark(producer);
+            demand.getAndUpdate(d -> d == Long.MAX_VALUE ? d : d - 1);
+            delivered += size;
+            batches++;
+            return batch;
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+}
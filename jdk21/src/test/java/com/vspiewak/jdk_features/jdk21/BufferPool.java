@@ -0,0 +1,45 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles direct buffers of one size: allocating (and freeing) direct memory is much more expensive
+ * than for heap buffers, but socket I/O on heap buffers goes through a temporary direct copy.
+ */
+public final class BufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /** buffers beyond {@code maxPooled} are left to the garbage collector */
+    public void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+}
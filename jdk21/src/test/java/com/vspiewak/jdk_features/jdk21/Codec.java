@@ -0,0 +1,75 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames messages on a byte stream for {@link TcpServer}.
+ */
+public interface Codec<T> {
+
+    /**
+     * Decodes the first complete frame of {@code in} (in read mode) and consumes it, or returns
+     * {@code null} without consuming anything when the frame is not complete yet.
+     */
+    T decode(ByteBuffer in);
+
+    /** buffers holding one frame, sent with a single gathering write */
+    ByteBuffer[] encode(T message);
+
+    /** UTF-8 lines terminated by {@code '\n'} */
+    static Codec<String> lines() {
+        return new Codec<>() {
+            @Override
+            public String decode(ByteBuffer in) {
+                for (int i = in.position(); i < in.limit(); i++) {
+                    if (in.get(i) == '\n') {
+                        byte[] line = new byte[i - in.position()];
+                        in.get(line);
+                        in.get();
+                        return new String(line, StandardCharsets.UTF_8);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public ByteBuffer[] encode(String message) {
+                byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+                byte[] line = new byte[bytes.length + 1];
+                System.arraycopy(bytes, 0, line, 0, bytes.length);
+                line[bytes.length] = '\n';
+                return new ByteBuffer[]{ByteBuffer.wrap(line)};
+            }
+        };
+    }
+
+    /** a 4-byte big-endian length followed by that many bytes; the payload array is sent as is */
+    static Codec<byte[]> lengthPrefixed(int maxFrameLength) {
+        return new Codec<>() {
+            @Override
+            public byte[] decode(ByteBuffer in) {
+                if (in.remaining() < Integer.BYTES) {
+                    return null;
+                }
+                int length = in.getInt(in.position());
+                if (length < 0 || length > maxFrameLength) {
+                    throw new IllegalArgumentException("invalid frame length: " + length);
+                }
+                if (in.remaining() < Integer.BYTES + length) {
+                    return null;
+                }
+                byte[] payload = new byte[length];
+                in.position(in.position() + Integer.BYTES);
+                in.get(payload);
+                return payload;
+            }
+
+            @Override
+            public ByteBuffer[] encode(byte[] message) {
+                return new ByteBuffer[]{ByteBuffer.allocate(Integer.BYTES).putInt(0, message.length), ByteBuffer.wrap(message)};
+            }
+        };
+    }
+
+}
@@ -2,26 +2,48 @@ package com.vspiewak.jdk_features.jdk21;
 
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.SimpleFileServer;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.SequencedCollection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class Jdk21Tests {
 
@@ -57,6 +79,516 @@ class Jdk21Tests {
         assertThat(vt.isVirtual()).isTrue();
     }
 
+    @Test
+    void canDetectVirtualThreadPinning() throws Exception {
+        // JEP 491: from JDK 24 on, blocking inside synchronized no longer pins the carrier
+        assumeTrue(Runtime.version().feature() < 24);
+
+        try (VirtualThreadMonitor monitor = new VirtualThreadMonitor(Duration.ofMillis(10), Duration.ofMillis(20))) {
+            Object lock = new Object();
+            Thread vt = Thread.startVirtualThread(() -> {
+                synchronized (lock) {
+                    try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+                }
+            });
+            vt.join();
+
+            // JFR streams events about once per second
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (monitor.pinnedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+
+            assertThat(monitor.pinnedCount()).isEqualTo(1);
+            // the event duration is measured apart from the sleep, and can come out a little shorter
+            assertThat(monitor.pinnedTime()).isGreaterThanOrEqualTo(Duration.ofMillis(40));
+            assertThat(monitor.pinnedStacks().keySet())
+                    .singleElement(InstanceOfAssertFactories.STRING)
+                    .contains("java.lang.Thread.sleep")
+                    .contains("lambda$canDetectVirtualThreadPinning$");
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canMeasureThroughputLostToPinning() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24);
+        int tasks = 200;
+
+        try (VirtualThreadMonitor monitor = new VirtualThreadMonitor(Duration.ofMillis(5), Duration.ofMillis(20))) {
+            // one lock per task: nothing is contended, the only difference is whether the carrier is pinned
+            long pinned = sleepUnderLocks(tasks, () -> {
+                Object lock = new Object();
+                synchronized (lock) {
+                    sleep(10);
+                }
+            });
+            long unpinned = sleepUnderLocks(tasks, () -> {
+                ReentrantLock lock = new ReentrantLock();
+                lock.lock();
+                try {
+                    sleep(10);
+                } finally {
+                    lock.unlock();
+                }
+            });
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (monitor.pinnedCount() < tasks && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            System.out.printf("%d tasks sleeping 10 ms on %d carriers: synchronized %d ms (%d pinned), ReentrantLock %d ms%n",
+                    tasks, Runtime.getRuntime().availableProcessors(), pinned / 1_000_000, monitor.pinnedCount(),
+                    unpinned / 1_000_000);
+            assertThat(monitor.pinnedCount()).isEqualTo(tasks);
+            assertThat(unpinned).isLessThan(pinned);
+        }
+    }
+
+    private static long sleepUnderLocks(int tasks, Runnable task) {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < tasks; i++) {
+                executor.execute(task);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void canSampleCarrierUtilization() throws Exception {
+        int carriers = Runtime.getRuntime().availableProcessors();
+        CountDownLatch running = new CountDownLatch(carriers);
+        AtomicBoolean stop = new AtomicBoolean();
+
+        try (VirtualThreadMonitor monitor = new VirtualThreadMonitor(Duration.ofMillis(20), Duration.ofMillis(10));
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            VirtualThreadMonitor.CarrierSample sample;
+            try {
+                for (int i = 0; i < carriers; i++) {
+                    executor.submit(() -> {
+                        running.countDown();
+                        while (!stop.get()) {
+                            Thread.onSpinWait();
+                        }
+                    });
+                }
+                assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+                sample = VirtualThreadMonitor.sampleCarriers();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (monitor.peakUtilization() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            } finally {
+                // before the executor is closed, which waits for the spinning tasks
+                stop.set(true);
+            }
+
+            assertThat(sample.carriers()).isPositive();
+            assertThat(sample.busy()).isPositive();
+            assertThat(sample.utilization()).isBetween(0.0, 1.0);
+            assertThat(monitor.peakUtilization()).isPositive();
+        }
+    }
+
+    @Test
+    void canServeSameProtocolWithSelectorAndVirtualThreadServers() throws Exception {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (TcpServer selector = TcpServer.selector(any, Codec.lines(), String::toUpperCase);
+             TcpServer virtual = TcpServer.virtualThreads(any, Codec.lines(), String::toUpperCase)) {
+            for (TcpServer server : List.of(selector, virtual)) {
+                assertThat(upperCaseExchanges(server, 1_000, 20)).hasSize(20_000).doesNotContain(0L);
+            }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareThroughputAndTailLatencyOfSelectorAndVirtualThreadServers() throws Exception {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (TcpServer selector = TcpServer.selector(any, Codec.lines(), String::toUpperCase);
+             TcpServer virtual = TcpServer.virtualThreads(any, Codec.lines(), String::toUpperCase)) {
+            for (TcpServer server : List.of(selector, virtual)) {
+                upperCaseExchanges(server, 1_000, 20);
+                long start = System.nanoTime();
+                long[] latencies = upperCaseExchanges(server, 1_000, 20);
+                long nanos = System.nanoTime() - start;
+                Arrays.sort(latencies);
+                System.out.printf("%s: %.0f requests/s, p50 %d us, p99 %d us%n", server.getClass().getSimpleName(),
+                        latencies.length * 1e9 / nanos,
+                        latencies[latencies.length / 2] / 1_000,
+                        latencies[latencies.length * 99 / 100] / 1_000);
+            }
+        }
+    }
+
+    /** opens {@code connections} clients that each send {@code requests} lines; returns every round-trip time */
+    private static long[] upperCaseExchanges(TcpServer server, int connections, int requests) throws Exception {
+        long[] latencies = new long[connections * requests];
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                int client = c;
+                done.add(clients.submit(() -> {
+                    try (SocketChannel channel = SocketChannel.open(server.address())) {
+                        ByteBuffer in = ByteBuffer.allocate(1024);
+                        for (int r = 0; r < requests; r++) {
+                            long sent = System.nanoTime();
+                            String response = exchange(channel, Codec.lines(), "hello " + client + "-" + r, in);
+                            latencies[client * requests + r] = System.nanoTime() - sent;
+                            assertThat(response).isEqualTo("HELLO " + client + "-" + r);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        }
+        return latencies;
+    }
+
+    @Test
+    void canFinishPartialWritesToSlowReader() throws Exception {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        Codec<byte[]> codec = Codec.lengthPrefixed(TcpServer.DEFAULT_BUFFER_SIZE);
+        // asks for a response much larger than the socket buffers
+        UnaryOperator<byte[]> handler = request -> {
+            byte[] response = new byte[ByteBuffer.wrap(request).getInt()];
+            Arrays.fill(response, (byte) 7);
+            return response;
+        };
+
+        try (TcpServer server = TcpServer.selector(any, codec, handler);
+             SocketChannel channel = SocketChannel.open(server.address())) {
+            int size = 16 << 20;
+            Codec<byte[]> client = Codec.lengthPrefixed(size);
+            send(channel, client, ByteBuffer.allocate(4).putInt(0, size).array());
+            send(channel, client, ByteBuffer.allocate(4).putInt(0, 1).array());
+            Thread.sleep(200);
+
+            ByteBuffer in = ByteBuffer.allocate(size + 4);
+            assertThat(receive(channel, client, in)).hasSize(size).containsOnly((byte) 7);
+            // the second request is answered once the first response is drained
+            assertThat(receive(channel, client, in)).containsExactly(7);
+        }
+    }
+
+    @Test
+    void canKeepServingAfterHandlerFails() throws Exception {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        UnaryOperator<String> handler = request -> {
+            if (request.equals("boom")) {
+                throw new IllegalStateException(request);
+            }
+            return request.toUpperCase();
+        };
+
+        try (TcpServer server = TcpServer.selector(any, Codec.lines(), handler);
+             SocketChannel failing = SocketChannel.open(server.address());
+             SocketChannel healthy = SocketChannel.open(server.address())) {
+            ByteBuffer in = ByteBuffer.allocate(1024);
+            assertThatThrownBy(() -> exchange(failing, Codec.lines(), "boom", in)).isInstanceOf(IOException.class);
+            in.clear();
+            assertThat(exchange(healthy, Codec.lines(), "still up", in)).isEqualTo("STILL UP");
+            try (SocketChannel late = SocketChannel.open(server.address())) {
+                in.clear();
+                assertThat(exchange(late, Codec.lines(), "late", in)).isEqualTo("LATE");
+            }
+        }
+    }
+
+    /** sends a request on a blocking channel and reads until the response is decoded */
+    private static <T> T exchange(SocketChannel channel, Codec<T> codec, T request, ByteBuffer in) throws IOException {
+        send(channel, codec, request);
+        return receive(channel, codec, in);
+    }
+
+    private static <T> void send(SocketChannel channel, Codec<T> codec, T request) throws IOException {
+        for (ByteBuffer buffer : codec.encode(request)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static <T> T receive(SocketChannel channel, Codec<T> codec, ByteBuffer in) throws IOException {
+        while (true) {
+            in.flip();
+            T response = codec.decode(in);
+            in.compact();
+            if (response != null) {
+                return response;
+            }
+            if (channel.read(in) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Test
+    void canDeliverBatchesToEachSubscriberOnItsOwnVirtualThread() throws Exception {
+        BatchCollector fast = new BatchCollector(Long.MAX_VALUE);
+        BatchCollector slow = new BatchCollector(1);
+        try (BatchingPublisher<Integer> publisher = new BatchingPublisher<>(1024, 16)) {
+            publisher.subscribe(fast);
+            publisher.subscribe(slow);
+            for (int i = 0; i < 1000; i++) {
+                publisher.submit(i);
+            }
+            // the slow subscriber asked for one batch only: the rest waits in its buffer
+            assertThat(slow.batches.await(1, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(50);
+            BatchingPublisher.Lag lag = publisher.lags().get(slow);
+            assertThat(lag.batches()).isEqualTo(1);
+            assertThat(lag.buffered() + lag.delivered()).isEqualTo(1000);
+            assertThat(lag.oldest()).isPositive();
+
+            slow.subscription.request(Long.MAX_VALUE);
+        }
+        for (BatchCollector subscriber : List.of(fast, slow)) {
+            assertThat(subscriber.done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(subscriber.items).containsExactlyElementsOf(IntStream.range(0, 1000).boxed().toList());
+            assertThat(subscriber.sizes).allSatisfy(size -> assertThat(size).isBetween(1, 16));
+            assertThat(subscriber.onVirtualThread).isTrue();
+        }
+        // batches are as large as the backlog allows
+        assertThat(slow.sizes).hasSizeLessThan(1000 / 16 + 2);
+    }
+
+    @Test
+    void canOfferWithDropHandlerToSlowSubscriber() throws Exception {
+        BatchCollector fast = new BatchCollector(Long.MAX_VALUE);
+        BatchCollector stalled = new BatchCollector(1);
+        List<Object> droppedFor = new ArrayList<>();
+        int offered = 1000;
+        try (BatchingPublisher<Integer> publisher = new BatchingPublisher<>(64, 8)) {
+            publisher.subscribe(fast);
+            publisher.subscribe(stalled);
+            // the stalled subscriber takes its only batch, then lets its buffer fill up
+            publisher.submit(0);
+            assertThat(stalled.batches.await(1, TimeUnit.SECONDS)).isTrue();
+            int drops = 0;
+            for (int i = 1; i < offered; i++) {
+                // waits a little for a full buffer, then drops without retrying
+                int result = publisher.offer(i, 100, TimeUnit.MICROSECONDS, (subscriber, item) -> {
+                    droppedFor.add(subscriber);
+                    return false;
+                });
+                drops += result < 0 ? -result : 0;
+            }
+            assertThat(drops).isEqualTo(droppedFor.size());
+
+            Map<Flow.Subscriber<? super List<Integer>>, BatchingPublisher.Lag> lags = publisher.lags();
+            assertThat(lags.get(stalled).buffered()).isEqualTo(64);
+            assertThat(lags.get(stalled).dropped()).isEqualTo(offered - 1 - 64);
+            assertThat(lags.values()).allSatisfy(lag ->
+                    assertThat(lag.buffered() + lag.delivered() + lag.dropped()).isEqualTo(offered));
+            stalled.subscription.request(Long.MAX_VALUE);
+        }
+        assertThat(stalled.done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fast.done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stalled.items).hasSize(1 + 64).isSorted();
+        assertThat(fast.items).isSorted();
+        assertThat(droppedFor).filteredOn(subscriber -> subscriber == stalled).hasSize(offered - 1 - 64);
+    }
+
+    @Test
+    void canCloseWithBufferedItemsAndNoDemandWithoutSpinning() throws Exception {
+        BatchCollector subscriber = new BatchCollector(1);
+        try (BatchingPublisher<Integer> publisher = new BatchingPublisher<>(64, 4)) {
+            publisher.subscribe(subscriber);
+            for (int i = 0; i < 20; i++) {
+                publisher.submit(i);
+            }
+            assertThat(subscriber.batches.await(1, TimeUnit.SECONDS)).isTrue();
+        }
+
+        // closed, items buffered, no demand: the subscriber thread must park, not burn a carrier
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        Thread.sleep(300);
+        double cpuShare = (double) (os.getProcessCpuTime() - cpuBefore) / (System.nanoTime() - start);
+        assertThat(cpuShare).isLessThan(0.5);
+        assertThat(subscriber.done.getCount()).isEqualTo(1);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.done.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.items).containsExactlyElementsOf(IntStream.range(0, 20).boxed().toList());
+    }
+
+    @Test
+    void canDeliverEveryItemSubmittedConcurrentlyWithClose() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            BatchCollector subscriber = new BatchCollector(Long.MAX_VALUE);
+            BatchingPublisher<Integer> publisher = new BatchingPublisher<>(1024, 64);
+            publisher.subscribe(subscriber);
+            int[] accepted = new int[1];
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        publisher.submit(i);
+                        accepted[0]++;
+                    }
+                } catch (IllegalStateException | InterruptedException closed) {
+                    // closed: the last submit was refused
+                }
+            });
+            producer.start();
+            Thread.sleep(0, round * 1_000);
+            publisher.close();
+            producer.join();
+
+            assertThat(subscriber.done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(subscriber.items).hasSize(accepted[0]);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareFanOutThroughputWithSubmissionPublisher() throws Exception {
+        for (int subscribers : new int[]{1, 10, 1000}) {
+            int items = Math.max(1000, 500_000 / subscribers);
+            // warm up both publishers, then measure
+            fanOutWithSubmissionPublisher(subscribers, items);
+            fanOutWithBatchingPublisher(subscribers, items);
+            long stock = fanOutWithSubmissionPublisher(subscribers, items);
+            long batching = fanOutWithBatchingPublisher(subscribers, items);
+            double deliveries = (double) subscribers * items;
+            System.out.printf("fan-out to %4d subscribers: SubmissionPublisher %6.1f M items/s, BatchingPublisher %6.1f M items/s%n",
+                    subscribers, deliveries / stock * 1e3, deliveries / batching * 1e3);
+        }
+    }
+
+    /** nanos to deliver {@code items} to every subscriber, one {@code onNext} per item */
+    private static long fanOutWithSubmissionPublisher(int subscribers, int items) throws Exception {
+        CountDownLatch done = new CountDownLatch(subscribers);
+        long[] received = new long[subscribers];
+        long start = System.nanoTime();
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), 256)) {
+            for (int s = 0; s < subscribers; s++) {
+                int index = s;
+                publisher.subscribe(new Flow.Subscriber<>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscription.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(Integer item) {
+                        received[index]++;
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        done.countDown();
+                    }
+                });
+            }
+            for (int i = 0; i < items; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertThat(done.await(1, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - start;
+        assertThat(received).containsOnly(items);
+        return elapsed;
+    }
+
+    /** nanos to deliver {@code items} to every subscriber, in batches of up to 256 */
+    private static long fanOutWithBatchingPublisher(int subscribers, int items) throws Exception {
+        CountDownLatch done = new CountDownLatch(subscribers);
+        long[] received = new long[subscribers];
+        long start = System.nanoTime();
+        try (BatchingPublisher<Integer> publisher = new BatchingPublisher<>(256, 256)) {
+            for (int s = 0; s < subscribers; s++) {
+                int index = s;
+                publisher.subscribe(new Flow.Subscriber<>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscription.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(List<Integer> batch) {
+                        received[index] += batch.size();
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        done.countDown();
+                    }
+                });
+            }
+            for (int i = 0; i < items; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertThat(done.await(1, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - start;
+        assertThat(received).containsOnly(items);
+        return elapsed;
+    }
+
+    /** records the batches it receives; asks for {@code demand} batches when subscribed */
+    private static final class BatchCollector implements Flow.Subscriber<List<Integer>> {
+        final long demand;
+        final List<Integer> items = new CopyOnWriteArrayList<>();
+        final List<Integer> sizes = new CopyOnWriteArrayList<>();
+        final CountDownLatch batches = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile boolean onVirtualThread = true;
+
+        BatchCollector(long demand) {
+            this.demand = demand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(demand);
+        }
+
+        @Override
+        public void onNext(List<Integer> batch) {
+            onVirtualThread &= Thread.currentThread().isVirtual();
+            items.addAll(batch);
+            sizes.add(batch.size());
+            batches.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
     // JEP 400: UTF-8 by Default
     @Test
     void canUseUtf8ByDefault() {
@@ -0,0 +1,215 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.UnaryOperator;
+
+/**
+ * All connections on one selector thread. Responses are queued per connection and written with
+ * gathering writes; when the socket does not take everything, the rest stays queued as is (no copy),
+ * {@code OP_WRITE} is set and reading stops until the queue is drained, so a slow reader cannot make
+ * the server buffer without bound.
+ * <p>
+ * A connection holds a read buffer from the pool only while it has unread bytes: idle connections cost
+ * no direct memory. Errors are logged and close the connection they came from; the loop keeps running.
+ */
+final class SelectorServer<T> implements TcpServer {
+
+    /** buffers handed to one gathering write */
+    private static final int MAX_GATHER = 64;
+
+    private static final System.Logger LOG = System.getLogger(SelectorServer.class.getName());
+
+    private final Codec<T> codec;
+    private final UnaryOperator<T> handler;
+    private final BufferPool pool;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    SelectorServer(InetSocketAddress address, Codec<T> codec, UnaryOperator<T> handler, BufferPool pool) throws IOException {
+        this.codec = codec;
+        this.handler = handler;
+        this.pool = pool;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open().bind(address, 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = Thread.ofPlatform().name("selector-server").daemon().start(this::loop);
+    }
+
+    @Override
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                try {
+                    selector.select(this::handle);
+                } catch (IOException | RuntimeException e) {
+                    LOG.log(System.Logger.Level.ERROR, "select failed", e);
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof SelectorServer<?>.Connection connection) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        if (!(key.attachment() instanceof SelectorServer<?>.Connection connection)) {
+            return;
+        }
+        try {
+            if (key.isWritable()) {
+                connection.flush();
+            }
+            if (key.isValid() && key.isReadable() && !connection.read()) {
+                connection.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(System.Logger.Level.DEBUG, "closing connection", e);
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the other pending connections are accepted on the next select
+            LOG.log(System.Logger.Level.WARNING, "accept failed", e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        /** null while there is nothing unread */
+        private ByteBuffer in;
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** returns false at end of stream */
+        boolean read() throws IOException {
+            if (in == null) {
+                in = pool.acquire();
+            }
+            if (channel.read(in) < 0) {
+                return false;
+            }
+            in.flip();
+            try {
+                T request;
+                while ((request = codec.decode(in)) != null) {
+                    T response = handler.apply(request);
+                    if (response != null) {
+                        Collections.addAll(out, codec.encode(response));
+                    }
+                }
+            } finally {
+                in.compact();
+            }
+            if (!in.hasRemaining()) {
+                throw new IOException("frame larger than " + in.capacity() + " bytes");
+            }
+            if (in.position() == 0) {
+                // no partial frame left: give the buffer back until the next read
+                pool.release(in);
+                in = null;
+            }
+            flush();
+            return true;
+        }
+
+        void flush() throws IOException {
+            while (!out.isEmpty()) {
+                int count = 0;
+                long remaining = 0;
+                for (ByteBuffer buffer : out) {
+                    if (count == gather.length) {
+                        break;
+                    }
+                    gather[count++] = buffer;
+                    remaining += buffer.remaining();
+                }
+                boolean drained = channel.write(gather, 0, count) == remaining;
+                Arrays.fill(gather, 0, count, null);
+                while (!out.isEmpty() && !out.peekFirst().hasRemaining()) {
+                    out.pollFirst();
+                }
+                if (!drained) {
+                    break; // socket buffer full
+                }
+            }
+            key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (in != null) {
+                pool.release(in);
+                in = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.close();
+        selector.close();
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.function.UnaryOperator;
+
+/**
+ * Request/response TCP server: each decoded frame is passed to the handler, and its result (unless
+ * {@code null}) is encoded back on the same connection. Two threading models share this API: a
+ * single selector thread over non-blocking channels, or one virtual thread per connection doing
+ * blocking I/O.
+ */
+public sealed interface TcpServer extends AutoCloseable permits SelectorServer, VirtualThreadServer {
+
+    int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    InetSocketAddress address();
+
+    @Override
+    void close() throws IOException;
+
+    static <T> TcpServer selector(InetSocketAddress address, Codec<T> codec, UnaryOperator<T> handler) throws IOException {
+        return new SelectorServer<>(address, codec, handler, new BufferPool(DEFAULT_BUFFER_SIZE, 1024));
+    }
+
+    static <T> TcpServer virtualThreads(InetSocketAddress address, Codec<T> codec, UnaryOperator<T> handler) throws IOException {
+        return new VirtualThreadServer<>(address, codec, handler, new BufferPool(DEFAULT_BUFFER_SIZE, 1024));
+    }
+
+}
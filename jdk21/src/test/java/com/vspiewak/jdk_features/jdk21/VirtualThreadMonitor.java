@@ -0,0 +1,156 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Watches virtual threads through JFR event streaming: pinning ({@code jdk.VirtualThreadPinned})
+ * aggregated by stack trace, failed submits, starts and ends. Carrier utilization is sampled
+ * separately from the stacks of the carrier threads.
+ */
+public class VirtualThreadMonitor implements AutoCloseable {
+
+    private static final int MAX_FRAMES = 8;
+
+    public record CarrierSample(int carriers, int busy) {
+        public double utilization() {
+            return carriers == 0 ? 0 : (double) busy / carriers;
+        }
+    }
+
+    private final RecordingStream stream = new RecordingStream();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("carrier-sampler").daemon().factory());
+
+    private final Map<String, LongAdder> pinnedByStack = new ConcurrentHashMap<>();
+    private final LongAdder pinned = new LongAdder();
+    private final LongAdder pinnedNanos = new LongAdder();
+    private final LongAdder submitFailed = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder ended = new LongAdder();
+    private volatile CarrierSample lastSample = new CarrierSample(0, 0);
+    private volatile double peakUtilization;
+
+    public VirtualThreadMonitor(Duration pinnedThreshold, Duration samplePeriod) {
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(pinnedThreshold).withStackTrace();
+        stream.enable("jdk.VirtualThreadSubmitFailed").withStackTrace();
+        stream.enable("jdk.VirtualThreadStart");
+        stream.enable("jdk.VirtualThreadEnd");
+        stream.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+        stream.onEvent("jdk.VirtualThreadSubmitFailed", e -> submitFailed.increment());
+        stream.onEvent("jdk.VirtualThreadStart", e -> started.increment());
+        stream.onEvent("jdk.VirtualThreadEnd", e -> ended.increment());
+        stream.startAsync();
+
+        long period = samplePeriod.toNanos();
+        sampler.scheduleAtFixedRate(() -> {
+            CarrierSample sample = sampleCarriers();
+            lastSample = sample;
+            peakUtilization = Math.max(peakUtilization, sample.utilization());
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.increment();
+        pinnedNanos.add(event.getDuration().toNanos());
+        pinnedByStack.computeIfAbsent(stackKey(event.getStackTrace()), k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Keeps the blocking JDK call and the application frames above it, so the same pinning site
+     * aggregates whatever happens inside the JDK.
+     */
+    static String stackKey(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "<no stack trace>";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        int firstApplicationFrame = 0;
+        while (firstApplicationFrame < frames.size() && isJdkFrame(frames.get(firstApplicationFrame))) {
+            firstApplicationFrame++;
+        }
+        int from = Math.max(0, firstApplicationFrame - 1);
+        return frames.subList(from, Math.min(frames.size(), from + MAX_FRAMES)).stream()
+                .map(f -> f.getMethod().getType().getName() + "." + f.getMethod().getName() + ":" + f.getLineNumber())
+                .collect(Collectors.joining(" <- "));
+    }
+
+    private static boolean isJdkFrame(RecordedFrame frame) {
+        String type = frame.getMethod().getType().getName();
+        return type.startsWith("java.") || type.startsWith("jdk.") || type.startsWith("sun.");
+    }
+
+    /** busy carriers are running a virtual thread: their stack goes through a continuation */
+    public static CarrierSample sampleCarriers() {
+        int carriers = 0;
+        int busy = 0;
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            if (!entry.getKey().getClass().getName().equals("jdk.internal.misc.CarrierThread")) {
+                continue;
+            }
+            carriers++;
+            for (StackTraceElement frame : entry.getValue()) {
+                if (frame.getClassName().equals("jdk.internal.vm.Continuation")) {
+                    busy++;
+                    break;
+                }
+            }
+        }
+        return new CarrierSample(carriers, busy);
+    }
+
+    /** pinning counts by stack, most frequent first */
+    public Map<String, Long> pinnedStacks() {
+        return pinnedByStack.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum(), (a, b) -> a, LinkedHashMap::new));
+    }
+
+    public long pinnedCount() {
+        return pinned.sum();
+    }
+
+    public Duration pinnedTime() {
+        return Duration.ofNanos(pinnedNanos.sum());
+    }
+
+    public long submitFailedCount() {
+        return submitFailed.sum();
+    }
+
+    public long startedCount() {
+        return started.sum();
+    }
+
+    public long endedCount() {
+        return ended.sum();
+    }
+
+    public CarrierSample lastSample() {
+        return lastSample;
+    }
+
+    public double peakUtilization() {
+        return peakUtilization;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        stream.close();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.vspiewak.jdk_features.jdk21;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+/**
+ * One virtual thread per connection with plain blocking reads and writes: the code reads like a
+ * thread-per-connection server, the scheduler parks the virtual thread instead of blocking a carrier.
+ * Responses to pipelined requests read together go out in one gathering write.
+ */
+final class VirtualThreadServer<T> implements TcpServer {
+
+    private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+
+    private final Codec<T> codec;
+    private final UnaryOperator<T> handler;
+    private final BufferPool pool;
+    private final ServerSocketChannel server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    VirtualThreadServer(InetSocketAddress address, Codec<T> codec, UnaryOperator<T> handler, BufferPool pool) throws IOException {
+        this.codec = codec;
+        this.handler = handler;
+        this.pool = pool;
+        this.server = ServerSocketChannel.open().bind(address, 4096);
+        executor.execute(this::acceptLoop);
+    }
+
+    @Override
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.add(channel);
+                executor.execute(() -> serve(channel));
+            }
+        } catch (ClosedChannelException e) {
+            // closed
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        ByteBuffer in = pool.acquire();
+        List<ByteBuffer> out = new ArrayList<>();
+        try (channel) {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                T request;
+                while ((request = codec.decode(in)) != null) {
+                    T response = handler.apply(request);
+                    if (response != null) {
+                        Collections.addAll(out, codec.encode(response));
+                    }
+                }
+                in.compact();
+                if (!in.hasRemaining()) {
+                    throw new IOException("frame larger than " + in.capacity() + " bytes");
+                }
+                if (!out.isEmpty()) {
+                    ByteBuffer[] buffers = out.toArray(NO_BUFFERS);
+                    long remaining = 0;
+                    for (ByteBuffer buffer : buffers) {
+                        remaining += buffer.remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    out.clear();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // connection dropped or protocol error: close it
+        } finally {
+            connections.remove(channel);
+            pool.release(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (SocketChannel channel : connections) {
+            channel.close();
+        }
+        executor.close();
+    }
+
+}
@@ -1,11 +1,30 @@
 package com.vspiewak.jdk_features.jdk25;
 
+import com.sun.management.ThreadMXBean;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import sun.misc.Unsafe;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Gatherers;
 import java.util.stream.Stream;
 
@@ -76,6 +95,142 @@ class Jdk25Tests {
     }
 
 
+    // JEP 506: Scoped Values
+    @Test
+    void canPropagateRequestContextWithScopedValues() throws Exception {
+        var context = new RequestContext("trace-1", "acme", Instant.now().plusSeconds(5));
+
+        try (var executor = RequestContext.propagating(Executors.newVirtualThreadPerTaskExecutor())) {
+            var traceIds = context.call(() -> {
+                var futures = new ArrayList<Future<String>>();
+                for (int i = 0; i < 1_000; i++) {
+                    futures.add(executor.submit(() -> RequestContext.current().map(RequestContext::traceId).orElse("none")));
+                }
+                var ids = new HashSet<String>();
+                for (var f : futures) {
+                    ids.add(f.get(1, TimeUnit.SECONDS));
+                }
+                return ids;
+            });
+            assertThat(traceIds).containsExactly("trace-1");
+
+            // not bound outside of the scope, neither in the submitter nor in the tasks
+            assertThat(RequestContext.current()).isEmpty();
+            assertThat(executor.submit(() -> RequestContext.current().isPresent()).get(1, TimeUnit.SECONDS)).isFalse();
+        }
+    }
+
+    private static final InheritableThreadLocal<RequestContext> INHERITED = new InheritableThreadLocal<>();
+
+    @Test
+    @Tag("benchmark")
+    void canComparePropagationCostWithInheritableThreadLocal() throws Exception {
+        var threads = 1_000_000;
+        var context = new RequestContext("trace-4", "acme", null);
+
+        double[] none = null;
+        double[] scoped = null;
+        double[] inherited = null;
+        // the first round warms up, the second one is measured
+        for (var round = 0; round < 2; round++) {
+            none = costPerThread(threads, Executors.newVirtualThreadPerTaskExecutor(), () -> context);
+            scoped = context.call(() -> costPerThread(threads,
+                    RequestContext.propagating(Executors.newVirtualThreadPerTaskExecutor()),
+                    () -> RequestContext.current().orElse(null)));
+            INHERITED.set(context);
+            try {
+                inherited = costPerThread(threads, Executors.newVirtualThreadPerTaskExecutor(), INHERITED::get);
+            } finally {
+                INHERITED.remove();
+            }
+        }
+
+        System.out.printf("%,d virtual threads, per thread:%n", threads);
+        System.out.printf("  no context             %5.0f bytes %6.0f ns%n", none[0], none[1]);
+        System.out.printf("  ScopedValue            %5.0f bytes %6.0f ns%n", scoped[0], scoped[1]);
+        System.out.printf("  InheritableThreadLocal %5.0f bytes %6.0f ns%n", inherited[0], inherited[1]);
+        assertThat(scoped[0]).isLessThan(inherited[0]);
+    }
+
+    /**
+     * Starts one virtual thread per task from this thread and waits for them. Returns what this thread
+     * allocated per virtual thread, where an inherited map is copied, then the time per virtual thread.
+     */
+    private static double[] costPerThread(int threads, ExecutorService executor, Supplier<RequestContext> read) {
+        var memory = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var seen = new LongAdder();
+        var bytes = memory.getCurrentThreadAllocatedBytes();
+        var start = System.nanoTime();
+        try (executor) {
+            for (var i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    if (read.get() != null) {
+                        seen.increment();
+                    }
+                });
+            }
+        }
+        var nanos = System.nanoTime() - start;
+        bytes = memory.getCurrentThreadAllocatedBytes() - bytes;
+        assertThat(seen.sum()).isEqualTo(threads);
+        return new double[]{(double) bytes / threads, (double) nanos / threads};
+    }
+
+    @Test
+    void canBridgeRequestContextToThreadLocal() {
+        var context = new RequestContext("trace-2", "acme", null);
+
+        context.run(() -> assertThat(RequestContext.LEGACY.get()).isSameAs(context));
+
+        RequestContext.LEGACY.set(context);
+        try {
+            RequestContext.bridge(() -> assertThat(RequestContext.current()).contains(context));
+        } finally {
+            RequestContext.LEGACY.remove();
+        }
+        assertThat(RequestContext.LEGACY.get()).isNull();
+    }
+
+    @Test
+    void canBindRequestContextInHttpServerHandler() throws Exception {
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        var executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/whoami", RequestContext.bound(exchange -> {
+            var context = RequestContext.current().orElseThrow();
+            var body = (context.tenant() + ":" + context.traceId()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(context.expired() ? 504 : 200, body.length);
+            try (var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }));
+        server.start();
+        try (var client = HttpClient.newHttpClient()) {
+            var request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:" + server.getAddress().getPort() + "/whoami"))
+                    .header(RequestContext.TRACE_ID_HEADER, "trace-3")
+                    .header(RequestContext.TENANT_HEADER, "acme")
+                    .header(RequestContext.DEADLINE_HEADER, Instant.now().plusSeconds(5).toString())
+                    .build();
+            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).isEqualTo("acme:trace-3");
+
+            var malformed = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:" + server.getAddress().getPort() + "/whoami"))
+                    .header(RequestContext.DEADLINE_HEADER, "tomorrow")
+                    .build();
+            var rejected = client.send(malformed, HttpResponse.BodyHandlers.ofString());
+
+            assertThat(rejected.statusCode()).isEqualTo(400);
+            assertThat(rejected.body()).contains(RequestContext.DEADLINE_HEADER);
+        } finally {
+            server.stop(0);
+            executor.close();
+        }
+    }
+
     // JEP 486: Permanently Disable the Security Manager
     @Test
     void canUsePermanentlyDisableSecurityManager() {
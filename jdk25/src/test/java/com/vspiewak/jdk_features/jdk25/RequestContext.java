@@ -0,0 +1,139 @@
+package com.vspiewak.jdk_features.jdk25;
+
+import com.sun.net.httpserver.HttpHandler;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request context (trace id, tenant, deadline) carried by a {@link ScopedValue} instead of an
+ * {@code InheritableThreadLocal}: binding it costs nothing per thread and nothing is copied when
+ * millions of virtual threads are started.
+ * <p>
+ * A scoped value is only inherited by {@code StructuredTaskScope} forks, so {@link #propagating}
+ * captures the binding of the submitting thread and re-binds it around each task of a plain
+ * executor.
+ */
+public record RequestContext(String traceId, String tenant, Instant deadline) {
+
+    public static final ScopedValue<RequestContext> CURRENT = ScopedValue.newInstance();
+
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+    public static final String TENANT_HEADER = "X-Tenant";
+    public static final String DEADLINE_HEADER = "X-Deadline";
+
+    /**
+     * Bridge for code still on {@code ThreadLocal}: reads the scoped value when bound, the thread's own
+     * value otherwise.
+     */
+    public static final ThreadLocal<RequestContext> LEGACY = new ThreadLocal<>() {
+        @Override
+        public RequestContext get() {
+            return CURRENT.isBound() ? CURRENT.get() : super.get();
+        }
+    };
+
+    public static Optional<RequestContext> current() {
+        return CURRENT.isBound() ? Optional.of(CURRENT.get()) : Optional.empty();
+    }
+
+    public boolean expired() {
+        return deadline != null && Instant.now().isAfter(deadline);
+    }
+
+    public void run(Runnable task) {
+        ScopedValue.where(CURRENT, this).run(task);
+    }
+
+    public <T, X extends Throwable> T call(ScopedValue.CallableOp<? extends T, X> task) throws X {
+        return ScopedValue.where(CURRENT, this).call(task);
+    }
+
+    /** runs legacy code that set {@link #LEGACY} with the same context bound as a scoped value */
+    public static void bridge(Runnable task) {
+        RequestContext legacy = LEGACY.get();
+        if (CURRENT.isBound() || legacy == null) {
+            task.run();
+        } else {
+            legacy.run(task);
+        }
+    }
+
+    /**
+     * Binds the context found in the request headers around the handler. A deadline that is not an
+     * ISO-8601 instant is answered with 400 without calling the handler.
+     */
+    public static HttpHandler bound(HttpHandler handler) {
+        return exchange -> {
+            var headers = exchange.getRequestHeaders();
+            var deadline = headers.getFirst(DEADLINE_HEADER);
+            Instant parsed;
+            try {
+                parsed = deadline == null ? null : Instant.parse(deadline);
+            } catch (DateTimeParseException e) {
+                var body = ("invalid " + DEADLINE_HEADER + ": " + deadline).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(400, body.length);
+                try (var out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+            var context = new RequestContext(
+                    headers.getFirst(TRACE_ID_HEADER),
+                    headers.getFirst(TENANT_HEADER),
+                    parsed);
+            context.call(() -> {
+                handler.handle(exchange);
+                return null;
+            });
+        };
+    }
+
+    /** wraps an executor so every task runs with the context of the thread that submitted it */
+    public static ExecutorService propagating(ExecutorService delegate) {
+        return new AbstractExecutorService() {
+
+            @Override
+            public void execute(Runnable command) {
+                if (!CURRENT.isBound()) {
+                    delegate.execute(command);
+                    return;
+                }
+                var context = CURRENT.get();
+                delegate.execute(() -> context.run(command));
+            }
+
+            @Override
+            public void shutdown() {
+                delegate.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return delegate.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return delegate.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return delegate.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return delegate.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+}
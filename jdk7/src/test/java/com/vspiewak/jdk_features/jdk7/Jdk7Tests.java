@@ -1,6 +1,8 @@
 package com.vspiewak.jdk_features.jdk7;
 
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -8,15 +10,25 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 class Jdk7Tests {
 
@@ -195,4 +207,422 @@ class Jdk7Tests {
 
     }
 
+    @Test
+    void canCopyTreeIncrementallyWithZeroCopyTransfers(@TempDir Path tmp) throws Exception {
+        Path source = tmp.resolve("source");
+        Path target = tmp.resolve("target");
+        Path journal = tmp.resolve("target.journal");
+        long size = generateTree(source, 10, 50);
+
+        TreeCopier.Report first = TreeCopier.copy(source, target, journal).run();
+        assertThat(first.copied).isEqualTo(500);
+        assertThat(first.bytes).isEqualTo(size);
+        assertThat(Files.exists(journal)).isFalse();
+        assertSameTree(source, target);
+
+        // nothing changed: every file is skipped by size and mtime
+        TreeCopier.Report second = TreeCopier.copy(source, target, journal).run();
+        assertThat(second.copied).isZero();
+        assertThat(second.skipped).isEqualTo(500);
+
+        // same size, same mtime, different content: only the content hash notices
+        Path changed = source.resolve("dir-3").resolve("file-7.bin");
+        FileTime mtime = Files.getLastModifiedTime(changed);
+        byte[] content = Files.readAllBytes(changed);
+        content[0] ^= 1;
+        Files.write(changed, content);
+        Files.setLastModifiedTime(changed, mtime);
+
+        assertThat(TreeCopier.copy(source, target, journal).run().copied).isZero();
+        TreeCopier.Report third = new TreeCopier(source, target, journal, TreeCopier.Check.CRC32C, false).run();
+        assertThat(third.copied).isEqualTo(1);
+        assertThat(third.skipped).isEqualTo(499);
+        assertSameTree(source, target);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareTreeCopyWithSequentialFilesCopy(@TempDir Path tmp) throws Exception {
+        Path source = tmp.resolve("source");
+        long size = generateTree(source, 10, 50);
+        // the first copy of each kind warms up, the second one is measured
+        TreeCopier.copy(source, tmp.resolve("warmup"), tmp.resolve("warmup.journal")).run();
+        copySequentially(source, tmp.resolve("warmup-baseline"));
+
+        TreeCopier.Report report = TreeCopier.copy(source, tmp.resolve("target"), tmp.resolve("target.journal")).run();
+        long start = System.nanoTime();
+        copySequentially(source, tmp.resolve("baseline"));
+        long nanos = System.nanoTime() - start;
+        System.out.printf("TreeCopier: %s%nFiles.copy: %.1f MB/s, %.0f files/s%n",
+                report, size * 1e3 / nanos, 500 * 1e9 / nanos);
+        assertThat(report.copied).isEqualTo(500);
+    }
+
+    private static void copySequentially(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path to = target.resolve(source.relativize(file).toString());
+                Files.createDirectories(to.getParent());
+                Files.copy(file, to);
+            }
+        }
+    }
+
+    @Test
+    void canAppendAndReadRecordsAcrossMappedSegments(@TempDir Path dir) throws Exception {
+        Random random = new Random(7);
+        List<byte[]> records = new ArrayList<>();
+
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.GROUP)) {
+            for (int i = 0; i < 10_000; i++) {
+                byte[] record = new byte[random.nextInt(100)];
+                random.nextBytes(record);
+                records.add(record);
+                assertThat(log.append(record)).isEqualTo(i);
+            }
+            log.sync(records.size() - 1);
+            assertThat(log.durableSize()).isEqualTo(records.size());
+        }
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir)) {
+            assertThat(segments).hasSizeGreaterThan(1);
+        }
+
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.GROUP)) {
+            assertThat(log.size()).isEqualTo(records.size());
+            assertThat(log.truncatedBytes()).isZero();
+            for (int i = 0; i < records.size(); i += 37) {
+                assertThat(log.read(i)).isEqualTo(records.get(i));
+            }
+            assertThat(log.append(new byte[]{42})).isEqualTo(records.size());
+        }
+    }
+
+    @Test
+    void canRecoverFromTornOrCorruptedTail(@TempDir Path dir) throws Exception {
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.NONE)) {
+            for (int i = 0; i < 100; i++) {
+                log.append(("record-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Path segment = dir.resolve(String.format("%020d.log", 0));
+        int end = 0;
+        for (int i = 0; i < 100; i++) {
+            end += SegmentedLog.HEADER + ("record-" + i).length();
+        }
+
+        // torn write: a header announcing 1000 bytes, followed by only part of them
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(SegmentedLog.HEADER + 10).putInt(1000).putInt(12345);
+            channel.write(torn.position(0), end);
+        }
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.NONE)) {
+            assertThat(log.size()).isEqualTo(100);
+            assertThat(log.truncatedBytes()).isEqualTo(SegmentedLog.HEADER);
+            assertThat(new String(log.read(99), StandardCharsets.UTF_8)).isEqualTo("record-99");
+        }
+
+        // a flipped bit in the last record
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, end - 1);
+            last.put(0, (byte) (last.get(0) ^ 1));
+            channel.write(last.position(0), end - 1);
+        }
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.NONE)) {
+            assertThat(log.size()).isEqualTo(99);
+            assertThat(log.truncatedBytes()).isEqualTo(SegmentedLog.HEADER + "record-99".length());
+            assertThat(log.append("again".getBytes(StandardCharsets.UTF_8))).isEqualTo(99);
+        }
+        try (SegmentedLog log = new SegmentedLog(dir, 64 * 1024, SegmentedLog.FsyncPolicy.NONE)) {
+            assertThat(log.size()).isEqualTo(100);
+            assertThat(new String(log.read(99), StandardCharsets.UTF_8)).isEqualTo("again");
+        }
+    }
+
+    @Test
+    void canGroupCommitConcurrentAppends(@TempDir Path tmp) throws Exception {
+        for (SegmentedLog.FsyncPolicy policy : SegmentedLog.FsyncPolicy.values()) {
+            int appendsPerThread = policy == SegmentedLog.FsyncPolicy.ALWAYS ? 200 : 20_000;
+            try (SegmentedLog log = new SegmentedLog(tmp.resolve(policy.name()), 16 << 20, policy)) {
+                appendConcurrently(log, 8, appendsPerThread);
+                assertThat(log.size()).isEqualTo(8L * appendsPerThread);
+                if (policy != SegmentedLog.FsyncPolicy.NONE) {
+                    assertThat(log.durableSize()).isEqualTo(log.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareAppendThroughputPerFsyncPolicy(@TempDir Path tmp) throws Exception {
+        double target = 1_000_000;
+        double unsynced = 0;
+        for (SegmentedLog.FsyncPolicy policy : SegmentedLog.FsyncPolicy.values()) {
+            int appendsPerThread = policy == SegmentedLog.FsyncPolicy.NONE ? 200_000 : 2_000;
+            try (SegmentedLog log = new SegmentedLog(tmp.resolve(policy.name()), 64 << 20, policy)) {
+                // the first half warms up, the second half is measured
+                appendConcurrently(log, 8, appendsPerThread / 2);
+                long start = System.nanoTime();
+                appendConcurrently(log, 8, appendsPerThread / 2);
+                double perSecond = 8.0 * (appendsPerThread / 2) * 1e9 / (System.nanoTime() - start);
+                System.out.printf("%s: %,.0f appends/s, %.2fx the 1M/s target%n", policy, perSecond, perSecond / target);
+                if (policy == SegmentedLog.FsyncPolicy.NONE) {
+                    unsynced = perSecond;
+                }
+            }
+        }
+        // only appends that skip the force can reach the target; a durable append costs a disk flush
+        assertThat(unsynced).isGreaterThan(target);
+    }
+
+    /** {@code threads} writers each append and sync 100-byte records */
+    private static void appendConcurrently(SegmentedLog log, int threads, int appendsPerThread) throws Exception {
+        byte[] record = new byte[100];
+        try (ExecutorService writers = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(writers.submit(() -> {
+                    for (int i = 0; i < appendsPerThread; i++) {
+                        log.sync(log.append(record));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        }
+    }
+
+    @Test
+    void canSyncWhileAppendingWithFsyncAlways(@TempDir Path dir) throws Exception {
+        byte[] record = new byte[100];
+        // small segments, so that appends also roll segments while sync runs
+        try (SegmentedLog log = new SegmentedLog(dir, 8 * 1024, SegmentedLog.FsyncPolicy.ALWAYS);
+             ExecutorService threads = Executors.newFixedThreadPool(5)) {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                done.add(threads.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        log.append(record);
+                    }
+                    return null;
+                }));
+            }
+            done.add(threads.submit(() -> {
+                while (log.size() < 4 * 500) {
+                    log.sync(log.size());
+                }
+                return null;
+            }));
+            for (Future<?> f : done) {
+                // a lock-order inversion between append and sync would hang here
+                f.get(1, TimeUnit.MINUTES);
+            }
+            assertThat(log.durableSize()).isEqualTo(4 * 500);
+        }
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir)) {
+            assertThat(segments).hasSizeGreaterThan(1);
+        }
+    }
+
+    @Test
+    void canSampleForkJoinPoolAndDiagnoseLeafGranularity() {
+        final double[] values = randomDoubles(1 << 20);
+        MonitoredForkJoinPool.RangeReducer<Double> sqrtSum = sqrtSum(values);
+        double expected = sqrtSum.leaf(0, values.length);
+        List<MonitoredForkJoinPool.Sample> published = Collections.synchronizedList(new ArrayList<MonitoredForkJoinPool.Sample>());
+
+        try (MonitoredForkJoinPool pool = new MonitoredForkJoinPool(4, 1, TimeUnit.HOURS, published::add)) {
+            MonitoredForkJoinPool.ThresholdTuner fine = MonitoredForkJoinPool.ThresholdTuner.fixed(16);
+            for (int i = 0; i < 3; i++) {
+                assertThat(pool.invoke(values.length, fine, sqrtSum)).isCloseTo(expected, within(expected * 1e-9));
+            }
+            MonitoredForkJoinPool.Sample sample = pool.sample();
+            assertThat(sample.runs).isEqualTo(3);
+            assertThat(sample.leaves).isEqualTo(3L * values.length / 16);
+            assertThat(sample.steals).isPositive();
+            assertThat(pool.diagnose(fine, 1)).isEqualTo(MonitoredForkJoinPool.Diagnosis.TOO_FINE);
+            int suggested = fine.suggest(values.length, 4);
+            assertThat(suggested).isGreaterThan(16).isLessThanOrEqualTo(values.length / 32);
+            assertThat(fine.threshold()).isEqualTo(16);
+
+            MonitoredForkJoinPool.ThresholdTuner coarse = MonitoredForkJoinPool.ThresholdTuner.fixed(values.length / 2);
+            pool.invoke(values.length, coarse, sqrtSum);
+            pool.sample();
+            assertThat(pool.diagnose(coarse, 1)).isEqualTo(MonitoredForkJoinPool.Diagnosis.TOO_COARSE);
+
+            MonitoredForkJoinPool.ThresholdTuner auto = MonitoredForkJoinPool.ThresholdTuner.auto(16, 100_000);
+            for (int i = 0; i < 10; i++) {
+                pool.invoke(values.length, auto, sqrtSum);
+            }
+            pool.sample();
+            pool.invoke(values.length, auto, sqrtSum);
+            pool.sample();
+            assertThat(pool.diagnose(auto, 1)).isEqualTo(MonitoredForkJoinPool.Diagnosis.HEALTHY);
+            assertThat(published).hasSize(4).isEqualTo(pool.samples());
+        }
+    }
+
+    @Test
+    void canDetectStarvedForkJoinPool() throws Exception {
+        try (MonitoredForkJoinPool pool = new MonitoredForkJoinPool(2, 1, TimeUnit.HOURS, sample -> { })) {
+            MonitoredForkJoinPool.ThresholdTuner tuner = MonitoredForkJoinPool.ThresholdTuner.fixed(1024);
+            // plain blocking calls, no ManagedBlocker: the pool does not compensate
+            List<Future<?>> sleepers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                sleepers.add(pool.pool().submit(() -> {
+                    Thread.sleep(500);
+                    return null;
+                }));
+            }
+            Thread.sleep(50);
+            for (int i = 0; i < 3; i++) {
+                pool.sample();
+                Thread.sleep(20);
+            }
+            assertThat(pool.diagnose(tuner, 3)).isEqualTo(MonitoredForkJoinPool.Diagnosis.STARVED);
+
+            for (Future<?> sleeper : sleepers) {
+                sleeper.get();
+            }
+            pool.sample();
+            pool.sample();
+            assertThat(pool.diagnose(tuner, 2)).isEqualTo(MonitoredForkJoinPool.Diagnosis.HEALTHY);
+
+            // long leaves with more queued behind them are slow, not starved
+            final MonitoredForkJoinPool.RangeReducer<Long> spin = new MonitoredForkJoinPool.RangeReducer<Long>() {
+                @Override
+                public Long leaf(int from, int to) {
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                    long spins = 0;
+                    while (System.nanoTime() < end) {
+                        spins++;
+                    }
+                    return spins;
+                }
+
+                @Override
+                public Long combine(Long left, Long right) {
+                    return left + right;
+                }
+            };
+            ExecutorService caller = Executors.newSingleThreadExecutor();
+            Future<Long> slow = caller.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return pool.invoke(8, MonitoredForkJoinPool.ThresholdTuner.fixed(1), spin);
+                }
+            });
+            Thread.sleep(50);
+            for (int i = 0; i < 3; i++) {
+                pool.sample();
+                Thread.sleep(20);
+            }
+            assertThat(pool.samples().get(pool.samples().size() - 1).runningLeaves).isPositive();
+            assertThat(pool.diagnose(tuner, 3)).isNotEqualTo(MonitoredForkJoinPool.Diagnosis.STARVED);
+            assertThat(slow.get()).isPositive();
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canAutoTuneLeafThresholdCloseToHandTunedOne() {
+        double[] values = randomDoubles(1 << 22);
+        MonitoredForkJoinPool.RangeReducer<Double> sqrtSum = sqrtSum(values);
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        try (MonitoredForkJoinPool pool = new MonitoredForkJoinPool(parallelism, 100, TimeUnit.MILLISECONDS, sample -> { })) {
+            // hand tuning: best of a sweep, each threshold timed with the same number of runs
+            long handBest = Long.MAX_VALUE;
+            int handThreshold = 0;
+            for (int threshold = 1 << 6; threshold <= values.length / 4; threshold <<= 2) {
+                long nanos = bestOf(5, pool, values.length, MonitoredForkJoinPool.ThresholdTuner.fixed(threshold), sqrtSum);
+                if (nanos < handBest) {
+                    handBest = nanos;
+                    handThreshold = threshold;
+                }
+            }
+
+            MonitoredForkJoinPool.ThresholdTuner auto = MonitoredForkJoinPool.ThresholdTuner.auto(16, 100_000);
+            for (int i = 0; i < 10; i++) {
+                pool.invoke(values.length, auto, sqrtSum);
+            }
+            assertThat(auto.threshold()).isGreaterThan(16);
+            long autoBest = bestOf(5, pool, values.length, auto, sqrtSum);
+            // re-time the hand-tuned threshold next to the auto-tuned one, so both see the same machine state
+            handBest = Math.min(handBest, bestOf(5, pool, values.length, MonitoredForkJoinPool.ThresholdTuner.fixed(handThreshold), sqrtSum));
+
+            System.out.printf("ForkJoin threshold: hand-tuned %d in %.2f ms, auto-tuned %d in %.2f ms (%+.1f%%)%n",
+                    handThreshold, handBest / 1e6, auto.threshold(), autoBest / 1e6, (autoBest - handBest) * 100.0 / handBest);
+            // typically within 10%; the margin keeps the test stable on loaded machines
+            assertThat((double) autoBest).isLessThanOrEqualTo(handBest * 1.25);
+        }
+    }
+
+    private static long bestOf(int runs, MonitoredForkJoinPool pool, int size,
+                               MonitoredForkJoinPool.ThresholdTuner tuner, MonitoredForkJoinPool.RangeReducer<Double> reducer) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            pool.invoke(size, tuner, reducer);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static double[] randomDoubles(int size) {
+        Random random = new Random(43);
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextDouble();
+        }
+        return values;
+    }
+
+    private static MonitoredForkJoinPool.RangeReducer<Double> sqrtSum(final double[] values) {
+        return new MonitoredForkJoinPool.RangeReducer<Double>() {
+            @Override
+            public Double leaf(int from, int to) {
+                double sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum += Math.sqrt(values[i]);
+                }
+                return sum;
+            }
+
+            @Override
+            public Double combine(Double left, Double right) {
+                return left + right;
+            }
+        };
+    }
+
+    private static long generateTree(Path root, int dirs, int filesPerDir) throws IOException {
+        Random random = new Random(42);
+        long total = 0;
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(root.resolve("dir-" + d));
+            for (int f = 0; f < filesPerDir; f++) {
+                byte[] content = new byte[1 + random.nextInt(64 * 1024)];
+                random.nextBytes(content);
+                Files.write(dir.resolve("file-" + f + ".bin"), content);
+                total += content.length;
+            }
+        }
+        return total;
+    }
+
+    private static void assertSameTree(Path expected, Path actual) throws IOException {
+        try (Stream<Path> files = Files.walk(expected)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path copy = actual.resolve(expected.relativize(file).toString());
+                assertThat(Files.readAllBytes(copy)).isEqualTo(Files.readAllBytes(file));
+                assertThat(Files.getLastModifiedTime(copy)).isEqualTo(Files.getLastModifiedTime(file));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,323 @@
+package com.vspiewak.jdk_features.jdk7;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A {@link ForkJoinPool} whose counters are sampled at a fixed period and handed to a sink, running
+ * range tasks split down to a leaf threshold that a {@link ThresholdTuner} can learn from leaf timings.
+ * <p>
+ * The pool only exposes instantaneous counters, so {@link #diagnose(ThresholdTuner)} looks at a window
+ * of samples: work queued while nothing completes and no leaf is running means workers blocked outside
+ * of a {@link ForkJoinPool.ManagedBlocker} (starvation), whereas a leaf still running is only a long
+ * one. Leaves much shorter than the target mean the fork/join overhead dominates (too fine), and fewer
+ * than two leaves per worker leave workers idle (too coarse).
+ */
+public class MonitoredForkJoinPool implements AutoCloseable {
+
+    public enum Diagnosis {
+        HEALTHY, STARVED, TOO_FINE, TOO_COARSE
+    }
+
+    /** splits {@code [0, size)}: leaves are computed sequentially, then combined pairwise */
+    public interface RangeReducer<R> {
+        R leaf(int from, int to);
+
+        R combine(R left, R right);
+    }
+
+    /**
+     * Pool counters at one point in time; steals, runs and leaves count since the previous sample,
+     * {@code runningLeaves} are the leaves started and not yet finished.
+     */
+    public static final class Sample {
+        public final long nanos;
+        public final long steals;
+        public final long queuedTasks;
+        public final int queuedSubmissions;
+        public final int activeThreads;
+        public final int runningThreads;
+        public final long runs;
+        public final long leaves;
+        public final long leafNanos;
+        public final int runningLeaves;
+
+        Sample(long nanos, long steals, long queuedTasks, int queuedSubmissions, int activeThreads,
+               int runningThreads, long runs, long leaves, long leafNanos, int runningLeaves) {
+            this.nanos = nanos;
+            this.steals = steals;
+            this.queuedTasks = queuedTasks;
+            this.queuedSubmissions = queuedSubmissions;
+            this.activeThreads = activeThreads;
+            this.runningThreads = runningThreads;
+            this.runs = runs;
+            this.leaves = leaves;
+            this.leafNanos = leafNanos;
+            this.runningLeaves = runningLeaves;
+        }
+
+        public long queued() {
+            return queuedTasks + queuedSubmissions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d steals, %d queued, %d active, %d running, %d runs, %d leaves of %.1f us, %d in progress",
+                    steals, queued(), activeThreads, runningThreads, runs, leaves,
+                    leaves == 0 ? 0.0 : leafNanos / 1e3 / leaves, runningLeaves);
+        }
+    }
+
+    /**
+     * Leaf threshold of one operation. Each run updates an EWMA of the cost per element, measured in the
+     * leaves only; the suggested threshold makes a leaf last {@code targetLeafNanos}, but never leaves
+     * fewer than {@value #LEAVES_PER_WORKER} leaves per worker. Tiny leaves overestimate that cost (timer
+     * and call overhead), so starting too fine converges over a few runs, each one with larger leaves.
+     */
+    public static final class ThresholdTuner {
+
+        private final long targetLeafNanos;
+        private final boolean autoAdjust;
+        private volatile int threshold;
+        private double nanosPerElement = Double.NaN;
+
+        /** a fixed threshold, only reporting what it would suggest */
+        public static ThresholdTuner fixed(int threshold) {
+            return new ThresholdTuner(threshold, DEFAULT_TARGET_LEAF_NANOS, false);
+        }
+
+        /** starts from {@code initial} and adjusts after every run */
+        public static ThresholdTuner auto(int initial, long targetLeafNanos) {
+            return new ThresholdTuner(initial, targetLeafNanos, true);
+        }
+
+        private ThresholdTuner(int threshold, long targetLeafNanos, boolean autoAdjust) {
+            this.threshold = threshold;
+            this.targetLeafNanos = targetLeafNanos;
+            this.autoAdjust = autoAdjust;
+        }
+
+        public int threshold() {
+            return threshold;
+        }
+
+        public long targetLeafNanos() {
+            return targetLeafNanos;
+        }
+
+        /** threshold for a run of {@code size} elements, or the current one while nothing was measured */
+        public synchronized int suggest(int size, int parallelism) {
+            if (Double.isNaN(nanosPerElement)) {
+                return threshold;
+            }
+            double target = targetLeafNanos / Math.max(nanosPerElement, 1e-3);
+            int cap = Math.max(1, size / (parallelism * LEAVES_PER_WORKER));
+            return (int) Math.max(1, Math.min(cap, target));
+        }
+
+        synchronized void completed(int size, int parallelism, long elements, long leafNanos) {
+            double sample = (double) leafNanos / Math.max(1, elements);
+            nanosPerElement = Double.isNaN(nanosPerElement) ? sample : nanosPerElement + ALPHA * (sample - nanosPerElement);
+            if (autoAdjust) {
+                threshold = suggest(size, parallelism);
+            }
+        }
+    }
+
+    static final long DEFAULT_TARGET_LEAF_NANOS = 100_000;
+    static final int LEAVES_PER_WORKER = 8;
+
+    private static final double ALPHA = 0.5;
+    private static final int HISTORY = 256;
+    private static final int WINDOW = 5;
+
+    private final ForkJoinPool pool;
+    private final Consumer<? super Sample> sink;
+    private final ScheduledExecutorService sampler;
+    private final long start = System.nanoTime();
+    private final ArrayDeque<Sample> history = new ArrayDeque<>();
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder leafNanos = new LongAdder();
+    private final AtomicInteger runningLeaves = new AtomicInteger();
+
+    private long lastSteals;
+    private long lastRuns;
+    private long lastLeaves;
+    private long lastLeafNanos;
+
+    public MonitoredForkJoinPool(int parallelism, long period, TimeUnit unit, Consumer<? super Sample> sink) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.sink = sink;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fork-join-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, period, period, unit);
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    /** splits {@code [0, size)} down to the tuner's current threshold, and reports the leaf timings to it */
+    public <R> R invoke(int size, ThresholdTuner tuner, RangeReducer<R> reducer) {
+        Run<R> run = new Run<>(reducer, Math.max(1, tuner.threshold()));
+        R result = pool.invoke(new RangeTask<>(run, 0, size));
+        runs.increment();
+        tuner.completed(size, pool.getParallelism(), size, run.leafNanos.sum());
+        return result;
+    }
+
+    /** takes a sample now, in addition to the periodic ones */
+    public Sample sample() {
+        Sample sample;
+        synchronized (history) {
+            long steals = pool.getStealCount();
+            long runs = this.runs.sum();
+            long leaves = this.leaves.sum();
+            long leafNanos = this.leafNanos.sum();
+            sample = new Sample(System.nanoTime() - start, steals - lastSteals, pool.getQueuedTaskCount(),
+                    pool.getQueuedSubmissionCount(), pool.getActiveThreadCount(), pool.getRunningThreadCount(),
+                    runs - lastRuns, leaves - lastLeaves, leafNanos - lastLeafNanos, runningLeaves.get());
+            lastSteals = steals;
+            lastRuns = runs;
+            lastLeaves = leaves;
+            lastLeafNanos = leafNanos;
+            if (history.size() == HISTORY) {
+                history.removeFirst();
+            }
+            history.addLast(sample);
+        }
+        sink.accept(sample);
+        return sample;
+    }
+
+    public List<Sample> samples() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    /** judges the last {@value #WINDOW} samples against the target leaf duration of {@code tuner} */
+    public Diagnosis diagnose(ThresholdTuner tuner) {
+        return diagnose(tuner, WINDOW);
+    }
+
+    /**
+     * Starvation needs at least two samples, all of them with work queued, nothing completed and no leaf
+     * in progress: a leaf longer than the window is not starvation.
+     */
+    public Diagnosis diagnose(ThresholdTuner tuner, int samples) {
+        List<Sample> window = new ArrayList<>();
+        synchronized (history) {
+            Iterator<Sample> newest = history.descendingIterator();
+            while (newest.hasNext() && window.size() < samples) {
+                window.add(newest.next());
+            }
+        }
+        boolean stuck = window.size() >= 2;
+        for (Sample sample : window) {
+            stuck &= sample.queued() > 0 && sample.leaves == 0 && sample.steals == 0 && sample.runs == 0
+                    && sample.runningLeaves == 0;
+        }
+        if (stuck) {
+            return Diagnosis.STARVED;
+        }
+        long runs = 0;
+        long leaves = 0;
+        long leafNanos = 0;
+        for (Sample sample : window) {
+            runs += sample.runs;
+            leaves += sample.leaves;
+            leafNanos += sample.leafNanos;
+        }
+        if (leaves > 0 && leafNanos / leaves < tuner.targetLeafNanos() / 10) {
+            return Diagnosis.TOO_FINE;
+        }
+        if (runs > 0 && leaves < 2L * pool.getParallelism() * runs) {
+            return Diagnosis.TOO_COARSE;
+        }
+        return Diagnosis.HEALTHY;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        pool.shutdown();
+    }
+
+    private final class Run<R> {
+        final RangeReducer<R> reducer;
+        final int threshold;
+        final LongAdder leafNanos = new LongAdder();
+
+        Run(RangeReducer<R> reducer, int threshold) {
+            this.reducer = reducer;
+            this.threshold = threshold;
+        }
+
+        R leaf(int from, int to) {
+            runningLeaves.incrementAndGet();
+            long start = System.nanoTime();
+            R result;
+            try {
+                result = reducer.leaf(from, to);
+            } finally {
+                runningLeaves.decrementAndGet();
+            }
+            long nanos = System.nanoTime() - start;
+            leafNanos.add(nanos);
+            MonitoredForkJoinPool.this.leaves.increment();
+            MonitoredForkJoinPool.this.leafNanos.add(nanos);
+            return result;
+        }
+    }
+
+    /** forks the left half and computes the right one itself, which saves a task per split */
+    private static final class RangeTask<R> extends RecursiveTask<R> {
+
+        private final Run<R> run;
+        private final int from;
+        private final int to;
+
+        RangeTask(Run<R> run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= run.threshold) {
+                return run.leaf(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            RangeTask<R> left = new RangeTask<>(run, from, mid);
+            left.fork();
+            R right = new RangeTask<>(run, mid, to).compute();
+            return run.reducer.combine(left.join(), right);
+        }
+    }
+
+}
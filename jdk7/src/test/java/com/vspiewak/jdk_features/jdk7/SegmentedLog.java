@@ -0,0 +1,284 @@
+package com.vspiewak.jdk_features.jdk7;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of byte records in fixed-size memory-mapped segment files, each named after the
+ * offset of its first record. A record is {@code [length][crc32c][payload]}, the CRC covering the
+ * length and the payload; the zero-filled rest of a segment never passes the CRC, so it marks the end.
+ * <p>
+ * Every {@value #INDEX_INTERVAL}th record position is kept in a sparse in-memory index, rebuilt from
+ * the record headers on open. Only the last segment can have a torn tail: its CRCs are checked on
+ * open, and everything from the first bad record on is zeroed.
+ */
+public class SegmentedLog implements AutoCloseable {
+
+    public enum FsyncPolicy {
+        /** forced only when a segment is rolled and on close; {@link #sync} does nothing */
+        NONE,
+        /** {@link #sync} forces the pages of all appends made so far, so concurrent callers share one force */
+        GROUP,
+        /** force every append before returning */
+        ALWAYS
+    }
+
+    static final int HEADER = 2 * Integer.BYTES;
+    static final int INDEX_INTERVAL = 64;
+
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy policy;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private final CRC32C crc = new CRC32C();
+
+    private Segment active;
+    private volatile long nextOffset;
+    private volatile long durableOffset;
+    private long truncatedBytes;
+
+    public SegmentedLog(Path directory, int segmentSize, FsyncPolicy policy) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.policy = policy;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+        bases.sort(null);
+        for (int i = 0; i < bases.size(); i++) {
+            Segment segment = new Segment(bases.get(i));
+            segment.scan(i == bases.size() - 1);
+            segments.put(segment.base, segment);
+            active = segment;
+        }
+        if (active == null) {
+            active = new Segment(0);
+            segments.put(0L, active);
+        }
+        nextOffset = active.base + active.count;
+        durableOffset = nextOffset;
+    }
+
+    /** returns the offset of the record */
+    public long append(byte[] payload) throws IOException {
+        long offset = write(payload);
+        // outside the monitor: sync takes the force lock first, then the monitor
+        if (policy == FsyncPolicy.ALWAYS) {
+            sync(offset);
+        }
+        return offset;
+    }
+
+    private synchronized long write(byte[] payload) throws IOException {
+        int size = HEADER + payload.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("record of " + payload.length + " bytes larger than a segment");
+        }
+        if (active.position + size > segmentSize) {
+            // sync only ever forces the active segment
+            active.force(active.position);
+            active = new Segment(nextOffset);
+            segments.put(active.base, active);
+        }
+        long offset = nextOffset;
+        active.write(payload);
+        nextOffset = offset + 1;
+        return offset;
+    }
+
+    /**
+     * Returns once the record at {@code offset} is on disk. The first caller forces every append made
+     * so far; callers waiting meanwhile usually find their record already covered (group commit).
+     */
+    public void sync(long offset) throws IOException {
+        if (policy == FsyncPolicy.NONE || offset < durableOffset) {
+            return;
+        }
+        forceLock.lock();
+        try {
+            if (offset < durableOffset) {
+                return;
+            }
+            Segment segment;
+            int bytes;
+            long upTo;
+            synchronized (this) {
+                segment = active;
+                bytes = segment.position;
+                upTo = nextOffset;
+            }
+            segment.force(bytes);
+            durableOffset = upTo;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    public synchronized byte[] read(long offset) {
+        if (offset < 0 || offset >= nextOffset) {
+            throw new IndexOutOfBoundsException("offset " + offset + " not in [0, " + nextOffset + ")");
+        }
+        Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+        return entry.getValue().read((int) (offset - entry.getKey()));
+    }
+
+    /** number of records, which is also the offset of the next one */
+    public long size() {
+        return nextOffset;
+    }
+
+    public long durableSize() {
+        return durableOffset;
+    }
+
+    /** bytes discarded from a torn tail when the log was opened */
+    public long truncatedBytes() {
+        return truncatedBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        active.force(active.position);
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    /** no-op where directories cannot be opened, as on Windows */
+    private void forceDirectory() throws IOException {
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private final class Segment {
+
+        final long base;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int count;
+        int position;
+        int forced;
+        int[] index = new int[16];
+
+        Segment(long base) throws IOException {
+            this.base = base;
+            Path file = directory.resolve(String.format("%020d%s", base, SUFFIX));
+            boolean created = Files.notExists(file);
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // mapping beyond the end grows the file, zero-filled
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            if (created) {
+                // the length set by the mapping and the directory entry are metadata that forcing the
+                // mapped pages does not cover: without them a crash can lose the whole segment
+                channel.force(true);
+                forceDirectory();
+            }
+        }
+
+        /** walks the record headers; only checks CRCs, and truncates, when {@code tail} */
+        void scan(boolean tail) {
+            while (position + HEADER <= segmentSize) {
+                int length = buffer.getInt(position);
+                if (length < 0 || position + HEADER + length > segmentSize) {
+                    break;
+                }
+                int stored = buffer.getInt(position + Integer.BYTES);
+                if (tail ? stored != checksum(position, length) : length == 0 && stored == 0) {
+                    break;
+                }
+                indexRecord();
+                position += HEADER + length;
+            }
+            forced = position;
+            if (tail) {
+                // garbage may be followed by zeroes and more garbage: clear up to the last non-zero byte
+                int end = segmentSize;
+                while (end > position && buffer.get(end - 1) == 0) {
+                    end--;
+                }
+                if (end > position) {
+                    for (int i = position; i < end; i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    buffer.force(position, end - position);
+                    truncatedBytes += end - position;
+                }
+            }
+        }
+
+        void write(byte[] payload) {
+            buffer.putInt(position, payload.length);
+            buffer.put(position + HEADER, payload);
+            buffer.putInt(position + Integer.BYTES, checksum(position, payload.length));
+            indexRecord();
+            position += HEADER + payload.length;
+        }
+
+        private void indexRecord() {
+            if (count % INDEX_INTERVAL == 0) {
+                int slot = count / INDEX_INTERVAL;
+                if (slot == index.length) {
+                    index = Arrays.copyOf(index, slot * 2);
+                }
+                index[slot] = position;
+            }
+            count++;
+        }
+
+        /** nearest indexed position, then at most {@code INDEX_INTERVAL - 1} headers to skip */
+        byte[] read(int record) {
+            int at = index[record / INDEX_INTERVAL];
+            for (int i = record % INDEX_INTERVAL; i > 0; i--) {
+                at += HEADER + buffer.getInt(at);
+            }
+            byte[] payload = new byte[buffer.getInt(at)];
+            buffer.get(at + HEADER, payload);
+            return payload;
+        }
+
+        /** forces the bytes written up to {@code upTo}, unless an earlier call already did */
+        synchronized void force(int upTo) {
+            if (upTo > forced) {
+                buffer.force(forced, upTo - forced);
+                forced = upTo;
+            }
+        }
+
+        /** guarded by the log monitor, like the shared {@code crc} */
+        private int checksum(int at, int length) {
+            crc.reset();
+            crc.update(buffer.duplicate().position(at).limit(at + Integer.BYTES));
+            crc.update(buffer.duplicate().position(at + HEADER).limit(at + HEADER + length));
+            return (int) crc.getValue();
+        }
+    }
+
+}
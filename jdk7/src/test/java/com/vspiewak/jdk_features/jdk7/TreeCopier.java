@@ -0,0 +1,284 @@
+package com.vspiewak.jdk_features.jdk7;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Copies (or moves) a file tree with {@link FileChannel#transferTo}, one virtual thread per file. The
+ * walk waits for a permit before starting a copy, so at most {@value #MAX_OPEN_FILES} copies (and
+ * threads) exist at once, however large the tree.
+ * <p>
+ * Files whose target is unchanged are skipped, and every finished file is appended to a journal:
+ * after an interrupted run, the next one skips journaled files without even looking at the target.
+ * The journal is deleted once a run completes.
+ */
+public class TreeCopier {
+
+    public enum Check {
+        /** same size and same last modified time, which the copy preserves */
+        SIZE_AND_MTIME,
+        /** same size and same CRC32C of the content */
+        CRC32C
+    }
+
+    public static final class Report {
+        public final long copied;
+        public final long skipped;
+        public final long resumed;
+        public final long bytes;
+        public final long nanos;
+
+        Report(long copied, long skipped, long resumed, long bytes, long nanos) {
+            this.copied = copied;
+            this.skipped = skipped;
+            this.resumed = resumed;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public double bytesPerSecond() {
+            return bytes * 1e9 / Math.max(1, nanos);
+        }
+
+        public double filesPerSecond() {
+            return (copied + skipped + resumed) * 1e9 / Math.max(1, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d copied, %d skipped, %d resumed, %.1f MB/s, %.0f files/s",
+                    copied, skipped, resumed, bytesPerSecond() / 1e6, filesPerSecond());
+        }
+    }
+
+    /** bounds the copies in flight, hence the files open at once */
+    private static final int MAX_OPEN_FILES = 64;
+    private static final int JOURNAL_FLUSH_EVERY = 256;
+
+    private final Path source;
+    private final Path target;
+    private final Path journal;
+    private final Check check;
+    private final boolean move;
+
+    private final Semaphore openFiles = new Semaphore(MAX_OPEN_FILES);
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    /** target directories already created, to skip the checks of {@code Files.createDirectories} */
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    private BufferedWriter journalWriter;
+    private int unflushed;
+    private IOException failure;
+
+    public TreeCopier(Path source, Path target, Path journal, Check check, boolean move) {
+        this.source = source;
+        this.target = target;
+        this.journal = journal;
+        this.check = check;
+        this.move = move;
+    }
+
+    public static TreeCopier copy(Path source, Path target, Path journal) {
+        return new TreeCopier(source, target, journal, Check.SIZE_AND_MTIME, false);
+    }
+
+    /**
+     * Runs a full pass. On failure the first error is thrown once every other file is done, and the
+     * journal is kept for the next run.
+     */
+    public Report run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        final Set<String> done = readJournal();
+        failure = null;
+        journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final String key = key(file);
+                    if (done.contains(key)) {
+                        resumed.incrementAndGet();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        openFiles.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while walking " + source);
+                    }
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                copyFile(file, attrs, key);
+                            } catch (IOException | RuntimeException e) {
+                                fail(e);
+                            } finally {
+                                openFiles.release();
+                            }
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            // closing the executor has waited for every copy
+            closeJournal();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        Files.delete(journal);
+        if (move) {
+            deleteEmptyDirectories(source);
+        }
+        return new Report(copied.get(), skipped.get(), resumed.get(), bytes.get(), System.nanoTime() - start);
+    }
+
+    private void copyFile(Path file, BasicFileAttributes attrs, String key) throws IOException {
+        Path to = target.resolve(source.relativize(file).toString());
+        if (unchanged(file, attrs, to)) {
+            skipped.incrementAndGet();
+        } else {
+            if (!directories.contains(to.getParent())) {
+                Files.createDirectories(to.getParent());
+                directories.add(to.getParent());
+            }
+            // a crash leaves at most a partial temp file, never a partial target
+            Path part = to.resolveSibling(to.getFileName() + ".part");
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                bytes.addAndGet(size);
+            }
+            Files.setLastModifiedTime(part, attrs.lastModifiedTime());
+            Files.move(part, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            copied.incrementAndGet();
+        }
+        if (move) {
+            Files.delete(file);
+        }
+        checkpoint(key);
+    }
+
+    private boolean unchanged(Path file, BasicFileAttributes attrs, Path to) throws IOException {
+        BasicFileAttributes existing;
+        try {
+            existing = Files.readAttributes(to, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (existing.size() != attrs.size()) {
+            return false;
+        }
+        switch (check) {
+            case SIZE_AND_MTIME:
+                return existing.lastModifiedTime().equals(attrs.lastModifiedTime());
+            case CRC32C:
+                return crc32c(file) == crc32c(to);
+            default:
+                throw new IllegalStateException(check.name());
+        }
+    }
+
+    static long crc32c(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private synchronized void checkpoint(String key) throws IOException {
+        journalWriter.write(key);
+        journalWriter.newLine();
+        // entries lost in a crash are caught by the unchanged check anyway
+        if (++unflushed >= JOURNAL_FLUSH_EVERY) {
+            journalWriter.flush();
+            unflushed = 0;
+        }
+    }
+
+    /** keeps the first error, the others are added to it as suppressed */
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        } else {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private synchronized void closeJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+
+    private Set<String> readJournal() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (Files.exists(journal)) {
+            for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    done.add(line);
+                }
+            }
+        }
+        return done;
+    }
+
+    /** relative path with '/' separators, stable across platforms */
+    private String key(Path file) {
+        StringBuilder key = new StringBuilder();
+        for (Path name : source.relativize(file)) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(name);
+        }
+        return key.toString();
+    }
+
+    private static void deleteEmptyDirectories(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    if (!entries.iterator().hasNext()) {
+                        Files.delete(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
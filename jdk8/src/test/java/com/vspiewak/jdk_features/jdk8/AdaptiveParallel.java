@@ -0,0 +1,232 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs a stream pipeline sequentially or in parallel depending on its input size and on a cost model
+ * learned from previous runs of the same operation. Parallel runs go to the given pool, never to
+ * {@link ForkJoinPool#commonPool()}: a parallel stream whose terminal operation is invoked from a
+ * task of a pool forks into that pool.
+ */
+public class AdaptiveParallel implements AutoCloseable {
+
+    /** fork/join overhead assumed before any parallel run of an operation was measured */
+    static final long DEFAULT_OVERHEAD_NANOS = 100_000;
+
+    /** every this many runs of an operation, the mode the model did not pick is run instead */
+    static final int EXPLORE_EVERY = 16;
+
+    private static final double ALPHA = 0.2;
+    private static final int MIN_CHUNK = 1 << 12;
+
+    /** EWMA estimates for one operation */
+    public static final class CostModel {
+        private double nanosPerElement = Double.NaN;
+        private double overheadNanos = DEFAULT_OVERHEAD_NANOS;
+        private long runs;
+
+        synchronized double nanosPerElement() {
+            return nanosPerElement;
+        }
+
+        synchronized double overheadNanos() {
+            return overheadNanos;
+        }
+
+        synchronized void sequential(long size, long nanos) {
+            double sample = (double) nanos / Math.max(1, size);
+            nanosPerElement = Double.isNaN(nanosPerElement) ? sample : ewma(nanosPerElement, sample);
+        }
+
+        /** whatever the split work does not explain is fork/join overhead */
+        synchronized void parallel(long size, long nanos, int parallelism) {
+            double sample = Math.max(0, nanos - nanosPerElement * size / parallelism);
+            overheadNanos = ewma(overheadNanos, sample);
+        }
+
+        /** counts a run and tells whether it should refresh the estimate of the other mode */
+        synchronized boolean explore() {
+            return ++runs % EXPLORE_EVERY == 0;
+        }
+
+        private static double ewma(double current, double sample) {
+            return current + ALPHA * (sample - current);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final Map<String, CostModel> models = new ConcurrentHashMap<>();
+
+    /** parallel runs use the caller's pool, which is left open by {@link #close()} */
+    public AdaptiveParallel(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    public AdaptiveParallel(int parallelism) {
+        this(new ForkJoinPool(parallelism), true);
+    }
+
+    private AdaptiveParallel(ForkJoinPool pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    public CostModel model(String operation) {
+        return models.computeIfAbsent(operation, k -> new CostModel());
+    }
+
+    /**
+     * Parallel only pays off when the work saved on the other cores exceeds the fork/join overhead.
+     * The first run of an operation is sequential, to measure its cost per element.
+     */
+    public boolean shouldParallelize(String operation, long size) {
+        CostModel model = model(operation);
+        double nanosPerElement = model.nanosPerElement();
+        if (Double.isNaN(nanosPerElement) || size < 2 * MIN_CHUNK) {
+            return false;
+        }
+        double sequential = nanosPerElement * size;
+        double parallel = model.overheadNanos() + sequential / pool.getParallelism();
+        return parallel < sequential;
+    }
+
+    /** input size from which a parallel run is expected to be faster, or -1 while unknown */
+    public long crossover(String operation) {
+        CostModel model = model(operation);
+        double nanosPerElement = model.nanosPerElement();
+        int parallelism = pool.getParallelism();
+        if (Double.isNaN(nanosPerElement) || nanosPerElement == 0 || parallelism < 2) {
+            return -1;
+        }
+        double saved = nanosPerElement * (1 - 1.0 / parallelism);
+        return Math.max(2 * MIN_CHUNK, (long) Math.ceil(model.overheadNanos() / saved));
+    }
+
+    /**
+     * Applies {@code terminal} to the stream of {@code source}, made sequential or parallel. The
+     * supplier is called once, in the thread that runs the terminal operation. Every
+     * {@value #EXPLORE_EVERY}th run of a splittable input goes against the model, so that an estimate
+     * made stale by a change of load or input is measured again rather than trusted forever.
+     */
+    public <S extends BaseStream<?, S>, R> R run(String operation, long size, Supplier<S> source, Function<S, R> terminal) {
+        CostModel model = model(operation);
+        boolean parallel = shouldParallelize(operation, size);
+        if (model.explore() && size >= 2 * MIN_CHUNK && !Double.isNaN(model.nanosPerElement())) {
+            parallel = !parallel;
+        }
+        long start = System.nanoTime();
+        R result;
+        if (parallel) {
+            result = pool.invoke(ForkJoinTask.adapt(() -> terminal.apply(source.get().parallel())));
+            model.parallel(size, System.nanoTime() - start, pool.getParallelism());
+        } else {
+            result = terminal.apply(source.get().sequential());
+            model.sequential(size, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /** splits in halves down to a few thousand elements, unlike {@code Arrays.spliterator} which splits down to one */
+    public static IntStream ints(int[] values) {
+        return StreamSupport.intStream(new IntBufferSpliterator(IntBuffer.wrap(values), 0, values.length), false);
+    }
+
+    /**
+     * Maps a file of big-endian ints read-only; the mapping stays valid after the channel is closed.
+     * A single mapping is limited to 2 GB.
+     */
+    public static IntStream ints(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("file too large for a single mapping: " + size);
+            }
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            return StreamSupport.intStream(new IntBufferSpliterator(ints, 0, ints.limit()), false);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /** reads with absolute gets, so every split shares the same buffer */
+    static final class IntBufferSpliterator implements Spliterator.OfInt {
+
+        private final IntBuffer buffer;
+        private int index;
+        private final int fence;
+
+        IntBufferSpliterator(IntBuffer buffer, int origin, int fence) {
+            this.buffer = buffer;
+            this.index = origin;
+            this.fence = fence;
+        }
+
+        @Override
+        public OfInt trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (mid - lo < MIN_CHUNK) {
+                return null;
+            }
+            index = mid;
+            return new IntBufferSpliterator(buffer, lo, mid);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (index >= fence) {
+                return false;
+            }
+            action.accept(buffer.get(index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            IntBuffer buffer = this.buffer;
+            int fence = this.fence;
+            int i = index;
+            index = fence;
+            for (; i < fence; i++) {
+                action.accept(buffer.get(i));
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+
+}
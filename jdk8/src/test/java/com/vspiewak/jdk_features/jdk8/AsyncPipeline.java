@@ -0,0 +1,114 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Routes each {@link CompletableFuture} stage to a dedicated executor instead of the common pool,
+ * so blocking work never competes with parallel streams.
+ */
+public class AsyncPipeline implements AutoCloseable {
+
+    public enum Lane {
+        /** blocking calls, one virtual thread per task */
+        VIRTUAL,
+        /** CPU-bound work, sized to the number of cores */
+        CPU,
+        /** blocking calls on platform threads */
+        IO
+    }
+
+    private final Map<Lane, ExecutorService> executors = new EnumMap<>(Lane.class);
+
+    public AsyncPipeline() {
+        AtomicInteger ioThreads = new AtomicInteger();
+        executors.put(Lane.VIRTUAL, Executors.newVirtualThreadPerTaskExecutor());
+        executors.put(Lane.CPU, new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+        executors.put(Lane.IO, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "io-" + ioThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public Executor executor(Lane lane) {
+        return executors.get(lane);
+    }
+
+    public <T> CompletableFuture<T> supply(Lane lane, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor(lane));
+    }
+
+    public <T, R> CompletableFuture<R> then(CompletableFuture<T> stage, Lane lane, Function<? super T, ? extends R> fn) {
+        return stage.thenApplyAsync(fn, executor(lane));
+    }
+
+    /**
+     * Like {@link #supply(Lane, Supplier)} but completes exceptionally with a {@code TimeoutException}
+     * after the given delay, and interrupts the task if it is still running.
+     */
+    public <T> CompletableFuture<T> supply(Lane lane, Supplier<T> supplier, long timeout, TimeUnit unit) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executors.get(lane).submit(() -> {
+            try {
+                result.complete(supplier.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.orTimeout(timeout, unit).whenComplete((r, e) -> {
+            if (e != null) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for all futures and collects their results in order, writing each one into a single shared
+     * array as it completes. Completes exceptionally as soon as one future fails.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<List<T>> allOf(List<? extends CompletableFuture<? extends T>> futures) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        Object[] values = new Object[futures.size()];
+        AtomicInteger remaining = new AtomicInteger(values.length);
+        if (values.length == 0) {
+            result.complete((List<T>) Arrays.asList(values));
+        }
+        for (int i = 0; i < values.length; i++) {
+            int index = i;
+            futures.get(i).whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    values[index] = value;
+                    if (remaining.decrementAndGet() == 0) {
+                        result.complete((List<T>) Arrays.asList(values));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -1,14 +1,32 @@
 package com.vspiewak.jdk_features.jdk8;
 
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.StampedLock;
@@ -18,6 +36,8 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class Jdk8Tests {
 
@@ -72,6 +92,159 @@ class Jdk8Tests {
 
     }
 
+    static class Customer {
+        Address address;
+
+        Customer(Address address) {
+            this.address = address;
+        }
+    }
+
+    static class Address {
+        private final City city;
+
+        Address(City city) {
+            this.city = city;
+        }
+
+        public City getCity() {
+            return city;
+        }
+    }
+
+    static class City {
+        String name;
+        int population;
+
+        City(String name, int population) {
+            this.name = name;
+            this.population = population;
+        }
+    }
+
+    @Test
+    void canNavigatePropertyPathsNullSafely() {
+
+        PropertyPaths.Accessor<Customer, String> cityName = PropertyPaths.of(Customer.class, "address.city.name", String.class);
+        Customer customer = new Customer(new Address(new City("Paris", 2_100_000)));
+
+        assertThat(cityName.get(customer, "unknown")).isEqualTo("Paris");
+        assertThat(cityName.get(new Customer(new Address(null)), "unknown")).isEqualTo("unknown");
+        assertThat(cityName.get(new Customer(null), "unknown")).isEqualTo("unknown");
+        assertThat(cityName.get(null, "unknown")).isEqualTo("unknown");
+        assertThat(cityName.get(new Customer(null))).isNull();
+        assertThat(PropertyPaths.of(Customer.class, "address.city.population", Integer.class).get(customer)).isEqualTo(2_100_000);
+
+        // compiled once per class and path
+        assertThat(PropertyPaths.of(Customer.class, "address.city.name", String.class)).isSameAs(cityName);
+        assertThat(PropertyPaths.of(Customer.class, "address.city.name", CharSequence.class)).isSameAs(cityName);
+        assertThat(PropertyPaths.cached(Customer.class)).isEqualTo(2);
+
+        assertThatThrownBy(() -> PropertyPaths.of(Customer.class, "address.zip", String.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("no property zip");
+        assertThatThrownBy(() -> PropertyPaths.of(Customer.class, "address.city.name", Integer.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("java.lang.String, not a java.lang.Integer");
+        assertThatThrownBy(() -> PropertyPaths.of(Customer.class, "address.city.population.value", Object.class))
+                .isInstanceOf(IllegalArgumentException.class);
+
+    }
+
+    @Test
+    void canReadPropertyPathsWithoutAllocatingOptionals() {
+
+        Customer[] customers = customersWithMissingLinks();
+        Map<String, ToIntFunction<Customer>> readers = cityNameLengthReaders();
+        long expected = sumOf(customers, readers.get("null checks"));
+        ToIntFunction<Customer> propertyPaths = readers.get("PropertyPaths");
+
+        ThreadMXBean threads = allocationCountingThreads();
+        for (int warmup = 0; warmup < 2_000; warmup++) {
+            assertThat(sumOf(customers, propertyPaths)).isEqualTo(expected);
+        }
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long sum = 0;
+        for (int round = 0; round < 2_000; round++) {
+            sum += sumOf(customers, propertyPaths);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        assertThat(sum).isEqualTo(expected * 2_000);
+        assertThat(allocated).isLessThan(64 * 1024);
+
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareOptionalChainsWithNullChecksAndPropertyPaths() {
+
+        Customer[] customers = customersWithMissingLinks();
+        Map<String, ToIntFunction<Customer>> readers = cityNameLengthReaders();
+        long expected = sumOf(customers, readers.get("null checks"));
+
+        ThreadMXBean threads = allocationCountingThreads();
+        for (Map.Entry<String, ToIntFunction<Customer>> reader : readers.entrySet()) {
+            int rounds = 2_000;
+            for (int warmup = 0; warmup < rounds; warmup++) {
+                assertThat(sumOf(customers, reader.getValue())).isEqualTo(expected);
+            }
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int round = 0; round < rounds; round++) {
+                sum += sumOf(customers, reader.getValue());
+            }
+            long nanos = System.nanoTime() - start;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            assertThat(sum).isEqualTo(expected * rounds);
+            System.out.printf("%-14s %5.1f ns/read, %6.2f bytes/read%n", reader.getKey(),
+                    (double) nanos / rounds / customers.length, (double) allocated / rounds / customers.length);
+        }
+
+    }
+
+    /** a quarter without address, a quarter without city */
+    private static Customer[] customersWithMissingLinks() {
+        Customer[] customers = new Customer[1024];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = i % 4 == 0 ? new Customer(null)
+                    : new Customer(new Address(i % 4 == 1 ? null : new City("city" + i, i)));
+        }
+        return customers;
+    }
+
+    /** the same read of a city name, or "none", written three ways */
+    private static Map<String, ToIntFunction<Customer>> cityNameLengthReaders() {
+        PropertyPaths.Accessor<Customer, String> cityName = PropertyPaths.of(Customer.class, "address.city.name", String.class);
+        Map<String, ToIntFunction<Customer>> readers = new LinkedHashMap<>();
+        readers.put("Optional.map", c -> Optional.ofNullable(c)
+                .map(u -> u.address)
+                .map(Address::getCity)
+                .map(city -> city.name)
+                .orElse("none")
+                .length());
+        readers.put("null checks", c -> {
+            String name = c == null || c.address == null || c.address.getCity() == null ? null : c.address.getCity().name;
+            return (name == null ? "none" : name).length();
+        });
+        readers.put("PropertyPaths", c -> cityName.get(c, "none").length());
+        return readers;
+    }
+
+    private static ThreadMXBean allocationCountingThreads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof ThreadMXBean);
+        return (ThreadMXBean) bean;
+    }
+
+    private static long sumOf(Customer[] customers, ToIntFunction<Customer> reader) {
+        long sum = 0;
+        for (Customer customer : customers) {
+            sum += reader.applyAsInt(customer);
+        }
+        return sum;
+    }
+
     @Test
     void canUseFunction() {
 
@@ -219,6 +392,190 @@ class Jdk8Tests {
         assertThat(actual).isEqualTo(3);
     }
 
+    @Test
+    void canChooseBetweenSequentialAndParallelStreamsInIsolatedPool() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (AdaptiveParallel adaptive = new AdaptiveParallel(pool)) {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+            // a 2-element list is never worth forking
+            Integer small = adaptive.run("lengths", 2, () -> Arrays.asList("a", "bc").stream(),
+                    s -> s.peek(e -> threads.add(Thread.currentThread())).reduce(0, (acc, e) -> acc + e.length(), Integer::sum));
+            assertThat(small).isEqualTo(3);
+            assertThat(threads).containsExactly(Thread.currentThread());
+
+            int[] values = IntStream.range(0, 4_000_000).toArray();
+            Function<IntStream, Long> sumOfSquares = s -> s
+                    .peek(e -> threads.add(Thread.currentThread()))
+                    .mapToLong(e -> (long) e * e)
+                    .sum();
+
+            // the first run is sequential and measures the cost per element
+            threads.clear();
+            assertThat(adaptive.shouldParallelize("squares", values.length)).isFalse();
+            long first = adaptive.run("squares", values.length, () -> AdaptiveParallel.ints(values), sumOfSquares);
+            assertThat(threads).containsExactly(Thread.currentThread());
+            assertThat(adaptive.crossover("squares")).isPositive().isLessThan(values.length);
+
+            threads.clear();
+            assertThat(adaptive.shouldParallelize("squares", values.length)).isTrue();
+            long second = adaptive.run("squares", values.length, () -> AdaptiveParallel.ints(values), sumOfSquares);
+            assertThat(second).isEqualTo(first);
+            assertThat(threads)
+                    .isNotEmpty()
+                    .allMatch(t -> t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void canReExploreTheModeTheCostModelDidNotPick() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (AdaptiveParallel adaptive = new AdaptiveParallel(pool)) {
+            int[] values = IntStream.range(0, 1_000_000).toArray();
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            Function<IntStream, Long> sum = s -> s.peek(e -> threads.add(Thread.currentThread())).asLongStream().sum();
+
+            // whichever mode the model settles on, every 16th run uses the other one
+            int sequential = 0;
+            int parallel = 0;
+            for (int run = 0; run < 2 * AdaptiveParallel.EXPLORE_EVERY; run++) {
+                threads.clear();
+                adaptive.run("sum", values.length, () -> AdaptiveParallel.ints(values), sum);
+                if (threads.equals(Collections.singleton(Thread.currentThread()))) {
+                    sequential++;
+                } else {
+                    parallel++;
+                }
+            }
+            assertThat(sequential).isGreaterThan(1);
+            assertThat(parallel).isPositive();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareMeasuredCrossoverWithCostModel() {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        try (AdaptiveParallel adaptive = new AdaptiveParallel(pool)) {
+            int[] values = IntStream.range(0, 1 << 22).toArray();
+            Function<IntStream, Long> sumOfSquares = s -> s.mapToLong(e -> (long) e * e).sum();
+            for (int i = 0; i < 64; i++) {
+                adaptive.run("squares", values.length, () -> AdaptiveParallel.ints(values), sumOfSquares);
+            }
+
+            long measured = -1;
+            for (int size = 1 << 13; size <= values.length; size <<= 1) {
+                int[] input = Arrays.copyOf(values, size);
+                long sequential = bestOf(() -> sumOfSquares.apply(AdaptiveParallel.ints(input)));
+                long parallel = bestOf(() -> pool.invoke(ForkJoinTask.adapt(() -> sumOfSquares.apply(AdaptiveParallel.ints(input).parallel()))));
+                System.out.printf("%,9d ints: sequential %,9d ns, parallel %,9d ns%n", size, sequential, parallel);
+                if (measured < 0 && parallel < sequential) {
+                    measured = size;
+                }
+            }
+            System.out.printf("crossover on %d workers: measured %,d, predicted %,d%n",
+                    pool.getParallelism(), measured, adaptive.crossover("squares"));
+            assertThat(adaptive.crossover("squares")).isPositive();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long bestOf(Supplier<Long> run) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            run.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    @Test
+    void canStreamMemoryMappedFileInParallel() throws Exception {
+        Path file = Files.createTempFile("ints", ".bin");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                for (int i = 0; i < 100_000; i++) {
+                    out.writeInt(i);
+                }
+            }
+
+            try (AdaptiveParallel adaptive = new AdaptiveParallel(2)) {
+                long sum = adaptive.pool().invoke(ForkJoinTask.adapt(() -> AdaptiveParallel.ints(file).parallel().asLongStream().sum()));
+                assertThat(sum).isEqualTo(99_999L * 100_000 / 2);
+                assertThat(AdaptiveParallel.ints(file).skip(99_998).toArray()).containsExactly(99_998, 99_999);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void canCompareWorkloadTimingsAcrossJdks() throws Exception {
+        Path toolchains = Files.createTempFile("toolchains", ".xml");
+        try {
+            Files.write(toolchains, Arrays.asList(
+                    "<toolchains>",
+                    "  <toolchain><type>jdk</type><provides><version>17</version></provides>",
+                    "    <configuration><jdkHome>/opt/jdk-17</jdkHome></configuration></toolchain>",
+                    "  <toolchain><type>jdk</type><provides><version>1.8</version></provides>",
+                    "    <configuration><jdkHome>/opt/jdk-8</jdkHome></configuration></toolchain>",
+                    "  <toolchain><type>netbeans</type><provides><version>12</version></provides></toolchain>",
+                    "</toolchains>"), StandardCharsets.UTF_8);
+            List<JdkMatrix.Jdk> jdks = JdkMatrix.toolchains(toolchains);
+            assertThat(jdks).extracting(JdkMatrix.Jdk::feature).containsExactly(8, 17);
+            assertThat(new JdkMatrix(1, 0).run(jdks).jdks()).isEmpty();
+        } finally {
+            Files.delete(toolchains);
+        }
+
+        JdkMatrix.Jdk older = new JdkMatrix.Jdk("11", Paths.get("/opt/jdk-11"));
+        JdkMatrix.Jdk newer = new JdkMatrix.Jdk("21", Paths.get("/opt/jdk-21"));
+        JdkMatrix.Matrix synthetic = new JdkMatrix.Matrix(Arrays.asList(older, newer));
+        synthetic.put("forkJoinSum", older, new JdkMatrix.Result(10_000_000, 9_000_000, 1, 2));
+        synthetic.put("forkJoinSum", newer, new JdkMatrix.Result(13_000_000, 12_000_000, 1, 2));
+        synthetic.put("streamGroupingBy", older, new JdkMatrix.Result(10_000_000, 9_000_000, 3, 5));
+        synthetic.put("streamGroupingBy", newer, new JdkMatrix.Result(10_500_000, 9_500_000, 3, 5));
+        assertThat(synthetic.regressions(0.1)).containsExactly("forkJoinSum: 21 is 30% slower than 11");
+        assertThat(synthetic.table(0.1)).contains("13.00 ms   1!").contains("10.50 ms   3 ");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canForkWorkloadMatrixOnRunningJdk() throws Exception {
+        // the running JDK, forked like any other
+        JdkMatrix.Jdk current = new JdkMatrix.Jdk(System.getProperty("java.specification.version"),
+                Paths.get(System.getProperty("java.home")));
+        JdkMatrix.Matrix matrix = new JdkMatrix(3, 1, "-Xms256m", "-Xmx256m").run(Collections.singletonList(current));
+        for (String workload : MatrixWorkloads.workloads().keySet()) {
+            JdkMatrix.Result result = matrix.result(workload, current);
+            assertThat(result).as(workload).isNotNull();
+            assertThat(result.minNanos).isPositive().isLessThanOrEqualTo(result.medianNanos);
+        }
+        assertThat(matrix.regressions(0.1)).isEmpty();
+        assertThat(matrix.table(0.1)).contains("forkJoinSum");
+        System.out.print(matrix.table(0.1));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canRunWorkloadMatrixOverLocalToolchains() throws Exception {
+        Path toolchains = JdkMatrix.defaultToolchains();
+        assumeTrue(Files.isReadable(toolchains), "no " + toolchains);
+
+        JdkMatrix.Matrix matrix = new JdkMatrix(10, 5, "-Xms512m", "-Xmx512m").run(JdkMatrix.toolchains(toolchains));
+        System.out.print(matrix.table(0.1));
+        for (String regression : matrix.regressions(0.1)) {
+            System.out.println("regression: " + regression);
+        }
+        assertThat(matrix.jdks()).isNotEmpty();
+    }
+
     @Test
     void canUseMapEnhancements() {
         Map<String, Integer> map = new HashMap<>();
@@ -233,6 +590,150 @@ class Jdk8Tests {
         assertThat(f.get(1, TimeUnit.SECONDS)).isEqualTo("done");
     }
 
+    @Test
+    void canRouteCompletableFutureStagesToNamedExecutors() throws Exception {
+        try (AsyncPipeline pipeline = new AsyncPipeline()) {
+
+            CompletableFuture<String> io = pipeline.supply(AsyncPipeline.Lane.IO, () -> Thread.currentThread().getName());
+            CompletableFuture<Boolean> cpu = pipeline.then(io, AsyncPipeline.Lane.CPU,
+                    name -> name.startsWith("io-") && Thread.currentThread() instanceof ForkJoinWorkerThread);
+            CompletableFuture<Boolean> virtual = pipeline.then(cpu, AsyncPipeline.Lane.VIRTUAL,
+                    previous -> previous && Thread.currentThread().isVirtual());
+
+            assertThat(virtual.get(1, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void canCollectAllOfResultsInOrder() throws Exception {
+        try (AsyncPipeline pipeline = new AsyncPipeline()) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                int value = i;
+                futures.add(pipeline.supply(AsyncPipeline.Lane.VIRTUAL, () -> value * value));
+            }
+
+            assertThat(AsyncPipeline.allOf(futures).get(1, TimeUnit.SECONDS))
+                    .containsExactly(0, 1, 4, 9, 16, 25, 36, 49, 64, 81);
+        }
+    }
+
+    @Test
+    void canTimeoutAndCancelAsyncCall() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (AsyncPipeline pipeline = new AsyncPipeline()) {
+            CompletableFuture<String> slow = pipeline.supply(AsyncPipeline.Lane.IO, () -> {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "too late";
+            }, 50, TimeUnit.MILLISECONDS);
+
+            assertThatThrownBy(() -> slow.get(1, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(TimeoutException.class);
+            assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void canMicroBatchAsyncCalls() throws Exception {
+        List<List<Integer>> calls = new CopyOnWriteArrayList<>();
+        Function<List<Integer>, Map<Integer, String>> downstream = keys -> {
+            calls.add(keys);
+            return keys.stream().collect(Collectors.toMap(Function.identity(), k -> "v" + k));
+        };
+
+        try (AsyncPipeline pipeline = new AsyncPipeline();
+             MicroBatcher<Integer, String> batcher = new MicroBatcher<>(
+                     4, 20, TimeUnit.MILLISECONDS, downstream, pipeline.executor(AsyncPipeline.Lane.VIRTUAL))) {
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(batcher.submit(i));
+            }
+
+            assertThat(AsyncPipeline.allOf(futures).get(1, TimeUnit.SECONDS))
+                    .containsExactly("v0", "v1", "v2", "v3", "v4", "v5", "v6", "v7", "v8", "v9");
+            assertThat(calls).hasSize(3);
+        }
+    }
+
+    @Test
+    void canFailMicroBatchesThatAreRejectedOrSubmittedAfterClose() {
+        Function<List<Integer>, Map<Integer, String>> downstream =
+                keys -> keys.stream().collect(Collectors.toMap(Function.identity(), k -> "v" + k));
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(2, 1, TimeUnit.SECONDS, downstream, stopped);
+        futures.add(batcher.submit(1));
+        futures.add(batcher.submit(2));
+        batcher.close();
+        futures.add(batcher.submit(3));
+
+        for (CompletableFuture<String> future : futures) {
+            assertThatThrownBy(() -> future.get(1, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareAsyncLatencyAndThroughputWithCommonPool() throws Exception {
+        // the first round starts the pool threads, the second one is measured
+        latencyUnderBlockingLoad(ForkJoinPool.commonPool(), ForkJoinPool.commonPool());
+        long[] common = latencyUnderBlockingLoad(ForkJoinPool.commonPool(), ForkJoinPool.commonPool());
+        long[] routed;
+        try (AsyncPipeline pipeline = new AsyncPipeline()) {
+            Executor blocking = pipeline.executor(AsyncPipeline.Lane.VIRTUAL);
+            Executor small = pipeline.executor(AsyncPipeline.Lane.CPU);
+            latencyUnderBlockingLoad(blocking, small);
+            routed = latencyUnderBlockingLoad(blocking, small);
+        }
+
+        System.out.printf("common pool: blocking load in %d ms, small task p50 %d us, p99 %d us%n",
+                common[0] / 1_000_000, common[1] / 1_000, common[2] / 1_000);
+        System.out.printf("pipeline:    blocking load in %d ms, small task p50 %d us, p99 %d us%n",
+                routed[0] / 1_000_000, routed[1] / 1_000, routed[2] / 1_000);
+        // small-task latency depends on the core count, only the blocking load must not queue up
+        assertThat(routed[0]).isLessThan(common[0]);
+    }
+
+    /**
+     * Sends 64 sleeping calls to one executor, then 1,000 small tasks to the other. Returns the time
+     * until the sleeping calls are done, then the median and 99th percentile small-task latency.
+     */
+    private static long[] latencyUnderBlockingLoad(Executor blocking, Executor small) throws Exception {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> load = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            load.add(CompletableFuture.runAsync(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, blocking));
+        }
+        long[] latencies = new long[1_000];
+        List<CompletableFuture<Void>> probes = new ArrayList<>();
+        for (int i = 0; i < latencies.length; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            probes.add(CompletableFuture.runAsync(() -> latencies[index] = System.nanoTime() - submitted, small));
+        }
+        AsyncPipeline.allOf(probes).get(1, TimeUnit.MINUTES);
+        AsyncPipeline.allOf(load).get(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new long[]{elapsed, latencies[latencies.length / 2], latencies[latencies.length * 99 / 100]};
+    }
+
     @Test
     void canUseStampedLock() {
         StampedLock lock = new StampedLock();
@@ -0,0 +1,261 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link MatrixWorkloads} once per JDK declared in a Maven toolchains file, each time in a fresh
+ * JVM with the same fixed heap, and lays the timings out as a workload-by-JDK table. A workload is
+ * flagged when a JDK is slower than the previous version by more than the tolerance.
+ */
+public class JdkMatrix {
+
+    public static final class Jdk {
+        public final String version;
+        public final Path home;
+
+        public Jdk(String version, Path home) {
+            this.version = version;
+            this.home = home;
+        }
+
+        /** 8 for "1.8", 17 for "17.0.9" */
+        public int feature() {
+            String[] parts = version.split("[._-]");
+            int first = Integer.parseInt(parts[0]);
+            return first == 1 && parts.length > 1 ? Integer.parseInt(parts[1]) : first;
+        }
+
+        Path java() {
+            return home.resolve("bin").resolve("java");
+        }
+
+        @Override
+        public String toString() {
+            return version;
+        }
+    }
+
+    public static final class Result {
+        public final long medianNanos;
+        public final long minNanos;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(long medianNanos, long minNanos, long gcCount, long gcMillis) {
+            this.medianNanos = medianNanos;
+            this.minNanos = minNanos;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    /** results per workload, then per JDK in version order */
+    public static final class Matrix {
+        private final List<Jdk> jdks;
+        private final Map<String, Map<Jdk, Result>> rows = new LinkedHashMap<>();
+
+        Matrix(List<Jdk> jdks) {
+            this.jdks = jdks;
+        }
+
+        public List<Jdk> jdks() {
+            return jdks;
+        }
+
+        public Result result(String workload, Jdk jdk) {
+            Map<Jdk, Result> row = rows.get(workload);
+            return row == null ? null : row.get(jdk);
+        }
+
+        void put(String workload, Jdk jdk, Result result) {
+            rows.computeIfAbsent(workload, k -> new LinkedHashMap<>()).put(jdk, result);
+        }
+
+        /** medians more than {@code tolerance} (0.1 for 10%) above the one of the previous JDK */
+        public List<String> regressions(double tolerance) {
+            List<String> regressions = new ArrayList<>();
+            for (Map.Entry<String, Map<Jdk, Result>> row : rows.entrySet()) {
+                Jdk previous = null;
+                for (Jdk jdk : jdks) {
+                    Result result = row.getValue().get(jdk);
+                    if (result == null) {
+                        continue;
+                    }
+                    if (previous != null && regressed(row.getValue().get(previous), result, tolerance)) {
+                        long before = row.getValue().get(previous).medianNanos;
+                        regressions.add(String.format("%s: %s is %.0f%% slower than %s", row.getKey(), jdk,
+                                (result.medianNanos - before) * 100.0 / before, previous));
+                    }
+                    previous = jdk;
+                }
+            }
+            return regressions;
+        }
+
+        private static boolean regressed(Result before, Result after, double tolerance) {
+            return after.medianNanos > before.medianNanos * (1 + tolerance);
+        }
+
+        /** median milliseconds and collections; {@code !} marks a regression against the column on the left */
+        public String table(double tolerance) {
+            StringBuilder table = new StringBuilder(String.format("%-24s", "workload"));
+            for (Jdk jdk : jdks) {
+                table.append(String.format("%18s", jdk));
+            }
+            table.append('\n');
+            for (Map.Entry<String, Map<Jdk, Result>> row : rows.entrySet()) {
+                table.append(String.format("%-24s", row.getKey()));
+                Result previous = null;
+                for (Jdk jdk : jdks) {
+                    Result result = row.getValue().get(jdk);
+                    if (result == null) {
+                        table.append(String.format("%18s", "-"));
+                        continue;
+                    }
+                    boolean regressed = previous != null && regressed(previous, result, tolerance);
+                    table.append(String.format("%10.2f ms %3d%s", result.medianNanos / 1e6, result.gcCount,
+                            regressed ? "!" : " "));
+                    previous = result;
+                }
+                table.append('\n');
+            }
+            return table.toString();
+        }
+    }
+
+    private static final long TIMEOUT_MINUTES = 10;
+
+    private final int iterations;
+    private final int warmups;
+    private final List<String> jvmOptions;
+
+    public JdkMatrix(int iterations, int warmups, String... jvmOptions) {
+        this.iterations = iterations;
+        this.warmups = warmups;
+        this.jvmOptions = Arrays.asList(jvmOptions);
+    }
+
+    /** {@code ~/.m2/toolchains.xml} */
+    public static Path defaultToolchains() {
+        return Paths.get(System.getProperty("user.home"), ".m2", "toolchains.xml");
+    }
+
+    /** the {@code jdk} toolchains of the file that have a {@code jdkHome}, sorted by version */
+    public static List<Jdk> toolchains(Path file) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file.toFile());
+        List<Jdk> jdks = new ArrayList<>();
+        NodeList toolchains = document.getElementsByTagName("toolchain");
+        for (int i = 0; i < toolchains.getLength(); i++) {
+            Element toolchain = (Element) toolchains.item(i);
+            String type = text(toolchain, "type");
+            String version = text(toolchain, "version");
+            String home = text(toolchain, "jdkHome");
+            if ("jdk".equals(type) && version != null && home != null) {
+                jdks.add(new Jdk(version, Paths.get(home)));
+            }
+        }
+        jdks.sort(Comparator.comparingInt(Jdk::feature));
+        return jdks;
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+    }
+
+    /** JDKs whose {@code java} is missing are left out of the matrix */
+    public Matrix run(List<Jdk> jdks, String... workloads) throws IOException, InterruptedException {
+        List<Jdk> installed = new ArrayList<>();
+        for (Jdk jdk : jdks) {
+            if (Files.isExecutable(jdk.java())) {
+                installed.add(jdk);
+            }
+        }
+        Matrix matrix = new Matrix(installed);
+        for (Jdk jdk : installed) {
+            for (Map.Entry<String, Result> entry : run(jdk, workloads).entrySet()) {
+                matrix.put(entry.getKey(), jdk, entry.getValue());
+            }
+        }
+        return matrix;
+    }
+
+    /** forks {@code jdk} on the test classes; the workloads are run one after the other in that JVM */
+    public Map<String, Result> run(Jdk jdk, String... workloads) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(jdk.java().toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classpath());
+        command.add(MatrixWorkloads.class.getName());
+        command.add(Integer.toString(iterations));
+        command.add(Integer.toString(warmups));
+        command.addAll(Arrays.asList(workloads));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        // drained on its own thread so that a hung JVM cannot block us past the timeout
+        List<String> lines = new ArrayList<>();
+        Thread drainer = new Thread(() -> drain(process, lines), "jdk-matrix-" + jdk);
+        drainer.setDaemon(true);
+        drainer.start();
+        if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IOException("workloads on JDK " + jdk + " still running after " + TIMEOUT_MINUTES + " minutes");
+        }
+        drainer.join();
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        StringBuilder output = new StringBuilder();
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length == 6 && fields[0].equals(MatrixWorkloads.PREFIX)) {
+                results.put(fields[1], new Result(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+            } else {
+                output.append(line).append('\n');
+            }
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("workloads failed on JDK " + jdk + " with exit code " + process.exitValue() + ":\n" + output);
+        }
+        return results;
+    }
+
+    /** ends when the process exits or is destroyed; only this thread touches {@code lines} until then */
+    private static void drain(Process process, List<String> lines) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            // the stream is closed when the process is destroyed
+        }
+    }
+
+    private static String classpath() {
+        try {
+            return Paths.get(MatrixWorkloads.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot locate the classes of " + MatrixWorkloads.class, e);
+        }
+    }
+
+}
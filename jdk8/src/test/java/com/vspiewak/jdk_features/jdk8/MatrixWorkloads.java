@@ -0,0 +1,286 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Workloads run by {@link JdkMatrix} in a JVM forked per JDK, hence Java 8 APIs only: this class must
+ * load on every JDK of the matrix. Each workload is warmed up, then timed for a number of iterations;
+ * {@link #main} prints one {@value #PREFIX} line per workload:
+ * {@code name, median nanos, min nanos, GC count, GC millis}, tab separated.
+ */
+public final class MatrixWorkloads {
+
+    static final String PREFIX = "RESULT";
+
+    /** returns a checksum, so that the JIT cannot drop the work */
+    abstract static class Workload {
+        void setUp() throws Exception {
+        }
+
+        abstract long run() throws Exception;
+
+        void tearDown() throws Exception {
+        }
+    }
+
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    static volatile long blackhole;
+
+    private MatrixWorkloads() {
+    }
+
+    static Map<String, Workload> workloads() {
+        Map<String, Workload> workloads = new LinkedHashMap<>();
+        workloads.put("forkJoinSum", new ForkJoinSum());
+        workloads.put("streamGroupingBy", new Workload() {
+            @Override
+            long run() {
+                Map<Integer, Long> counts = IntStream.range(0, 1_000_000).boxed()
+                        .collect(Collectors.groupingBy(i -> i % 1000, Collectors.counting()));
+                return counts.size() + counts.get(7);
+            }
+        });
+        workloads.put("completableFutureChains", new CompletableFutureChains());
+        workloads.put("httpServerLoopback", new HttpServerLoopback());
+        workloads.put("atomicLongCounter", new Counter(false));
+        workloads.put("longAdderCounter", new Counter(true));
+        return workloads;
+    }
+
+    /** arguments: iterations, warmup iterations, then optionally the names of the workloads to run */
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.parseInt(args[0]);
+        int warmups = Integer.parseInt(args[1]);
+        List<String> only = Arrays.asList(args).subList(2, args.length);
+        for (Map.Entry<String, Workload> entry : workloads().entrySet()) {
+            if (only.isEmpty() || only.contains(entry.getKey())) {
+                System.out.println(PREFIX + "\t" + entry.getKey() + "\t" + measure(entry.getValue(), iterations, warmups));
+            }
+        }
+    }
+
+    static String measure(Workload workload, int iterations, int warmups) throws Exception {
+        workload.setUp();
+        try {
+            long checksum = 0;
+            for (int i = 0; i < warmups; i++) {
+                checksum += workload.run();
+            }
+            long[] nanos = new long[iterations];
+            long[] gcBefore = gc();
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                checksum += workload.run();
+                nanos[i] = System.nanoTime() - start;
+            }
+            long[] gcAfter = gc();
+            Arrays.sort(nanos);
+            blackhole = checksum;
+            return nanos[iterations / 2] + "\t" + nanos[0] + "\t" + (gcAfter[0] - gcBefore[0]) + "\t" + (gcAfter[1] - gcBefore[1]);
+        } finally {
+            workload.tearDown();
+        }
+    }
+
+    private static long[] gc() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    static final class ForkJoinSum extends Workload {
+        private final long[] values = new long[1 << 22];
+        private ForkJoinPool pool;
+
+        @Override
+        void setUp() {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i * 31L;
+            }
+            pool = new ForkJoinPool(THREADS);
+        }
+
+        @Override
+        long run() {
+            return pool.invoke(new Sum(values, 0, values.length));
+        }
+
+        @Override
+        void tearDown() {
+            pool.shutdown();
+        }
+
+        static final class Sum extends RecursiveTask<Long> {
+            private final long[] values;
+            private final int from;
+            private final int to;
+
+            Sum(long[] values, int from, int to) {
+                this.values = values;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Long compute() {
+                if (to - from <= 16_384) {
+                    long sum = 0;
+                    for (int i = from; i < to; i++) {
+                        sum += values[i];
+                    }
+                    return sum;
+                }
+                int mid = (from + to) >>> 1;
+                Sum left = new Sum(values, from, mid);
+                left.fork();
+                return new Sum(values, mid, to).compute() + left.join();
+            }
+        }
+    }
+
+    static final class CompletableFutureChains extends Workload {
+        private ExecutorService executor;
+
+        @Override
+        void setUp() {
+            executor = Executors.newFixedThreadPool(THREADS);
+        }
+
+        @Override
+        long run() {
+            List<CompletableFuture<Long>> chains = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                final long seed = i;
+                CompletableFuture<Long> other = CompletableFuture.supplyAsync(() -> seed * 2, executor);
+                chains.add(CompletableFuture.supplyAsync(() -> seed, executor)
+                        .thenApplyAsync(v -> v + 1, executor)
+                        .thenCompose(v -> CompletableFuture.supplyAsync(() -> v * 3, executor))
+                        .thenCombine(other, Long::sum));
+            }
+            long sum = 0;
+            for (CompletableFuture<Long> chain : chains) {
+                sum += chain.join();
+            }
+            return sum;
+        }
+
+        @Override
+        void tearDown() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /** sequential keep-alive GETs of a small body from a server on the loopback interface */
+    static final class HttpServerLoopback extends Workload {
+        private static final byte[] BODY = "hello from the matrix".getBytes(StandardCharsets.UTF_8);
+
+        private HttpServer server;
+        private ExecutorService executor;
+        private URL url;
+
+        @Override
+        void setUp() throws IOException {
+            // read once, when the first server is created: without it, small responses wait for delayed ACKs
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+            executor = Executors.newFixedThreadPool(THREADS);
+            server.setExecutor(executor);
+            server.createContext("/", exchange -> {
+                exchange.sendResponseHeaders(200, BODY.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(BODY);
+                }
+            });
+            server.start();
+            url = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/").toURL();
+        }
+
+        @Override
+        long run() throws IOException {
+            long bytes = 0;
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < 500; i++) {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                try (InputStream in = connection.getInputStream()) {
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        bytes += n;
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        void tearDown() {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    static final class Counter extends Workload {
+        private final boolean adder;
+
+        Counter(boolean adder) {
+            this.adder = adder;
+        }
+
+        @Override
+        long run() throws InterruptedException {
+            final AtomicLong atomic = new AtomicLong();
+            final LongAdder sum = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1_000_000; i++) {
+                        if (adder) {
+                            sum.increment();
+                        } else {
+                            atomic.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return adder ? sum.sum() : atomic.get();
+        }
+    }
+
+}
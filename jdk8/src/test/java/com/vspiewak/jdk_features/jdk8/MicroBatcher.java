@@ -0,0 +1,138 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Groups many small async calls into one downstream call. A batch is sent when it reaches
+ * {@code maxBatchSize} keys, or {@code maxDelay} after its first key, whichever comes first.
+ */
+public class MicroBatcher<K, V> implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final TimeUnit unit;
+    private final Function<List<K>, Map<K, V>> batchCall;
+    private final Executor executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "micro-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Batch<K, V> pending = new Batch<>();
+    private long generation = 0;
+    private boolean closed;
+
+    public MicroBatcher(int maxBatchSize, long maxDelay, TimeUnit unit,
+                        Function<List<K>, Map<K, V>> batchCall, Executor executor) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.unit = unit;
+        this.batchCall = batchCall;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds the key to the pending batch. After {@link #close()}, or when the executor rejects its
+     * batch, the future completes with a {@link RejectedExecutionException}.
+     */
+    public CompletableFuture<V> submit(K key) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        Batch<K, V> full = null;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new RejectedExecutionException("micro batcher is closed"));
+                return future;
+            }
+            pending.add(key, future);
+            if (pending.keys.size() >= maxBatchSize) {
+                full = take();
+            } else if (pending.keys.size() == 1) {
+                long scheduled = generation;
+                timer.schedule(() -> flushIfStill(scheduled), maxDelay, unit);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    private void flushIfStill(long scheduled) {
+        Batch<K, V> due = null;
+        synchronized (this) {
+            if (generation == scheduled && !pending.keys.isEmpty()) {
+                due = take();
+            }
+        }
+        if (due != null) {
+            send(due);
+        }
+    }
+
+    private Batch<K, V> take() {
+        Batch<K, V> batch = pending;
+        pending = new Batch<>();
+        generation++;
+        return batch;
+    }
+
+    /** hands the batch to the executor, outside the lock so that a caller-runs executor cannot block submitters */
+    private void send(Batch<K, V> batch) {
+        try {
+            executor.execute(() -> {
+                try {
+                    Map<K, V> values = batchCall.apply(batch.keys);
+                    for (int i = 0; i < batch.keys.size(); i++) {
+                        batch.futures.get(i).complete(values.get(batch.keys.get(i)));
+                    }
+                } catch (Throwable t) {
+                    batch.fail(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    /** sends the pending batch; later submits are rejected */
+    @Override
+    public void close() {
+        Batch<K, V> last = null;
+        synchronized (this) {
+            closed = true;
+            if (!pending.keys.isEmpty()) {
+                last = take();
+            }
+        }
+        timer.shutdownNow();
+        if (last != null) {
+            send(last);
+        }
+    }
+
+    private static final class Batch<K, V> {
+
+        final List<K> keys = new ArrayList<>();
+        final List<CompletableFuture<V>> futures = new ArrayList<>();
+
+        void add(K key, CompletableFuture<V> future) {
+            keys.add(key);
+            futures.add(future);
+        }
+
+        void fail(Throwable error) {
+            futures.forEach(f -> f.completeExceptionally(error));
+        }
+    }
+
+}
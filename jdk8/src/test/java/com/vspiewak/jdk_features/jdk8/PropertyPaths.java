@@ -0,0 +1,172 @@
+package com.vspiewak.jdk_features.jdk8;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Null-safe navigation of dotted property paths such as {@code "address.street"}, without an
+ * {@link java.util.Optional} per hop: a path is compiled once into a chain of {@link MethodHandle}s, each
+ * hop returning null when its receiver is null, and cached per class and path.
+ * <p>
+ * A hop is resolved to a public getter ({@code getStreet()}, {@code isStreet()} or {@code street()}),
+ * else to a field of the class or of a superclass. Reading a reference through an {@link Accessor}
+ * allocates nothing; a primitive at the end of the path is boxed.
+ */
+public final class PropertyPaths {
+
+    public static final class Accessor<T, R> {
+        private final String path;
+        /** the declared type of the last hop, primitives wrapped */
+        private final Class<?> leaf;
+        /** {@code (Object)Object}, so that {@code invokeExact} needs no conversion at the call site */
+        private final MethodHandle handle;
+
+        Accessor(String path, Class<?> leaf, MethodHandle handle) {
+            this.path = path;
+            this.leaf = leaf;
+            this.handle = handle;
+        }
+
+        /** the value at the end of the path, or {@code defaultValue} if it or any hop before it is null */
+        @SuppressWarnings("unchecked")
+        public R get(T root, R defaultValue) {
+            Object value;
+            try {
+                value = (Object) handle.invokeExact((Object) root);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("cannot read " + path, e);
+            }
+            return value == null ? defaultValue : (R) value;
+        }
+
+        /** the value at the end of the path, or null */
+        public R get(T root) {
+            return get(root, null);
+        }
+
+        /** {@code (Object)Object}: a null receiver gives null */
+        public MethodHandle handle() {
+            return handle;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle IS_NULL;
+    /** {@code (Object)Object}, returns null */
+    private static final MethodHandle RETURN_NULL =
+            MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+
+    static {
+        try {
+            IS_NULL = LOOKUP.findStatic(PropertyPaths.class, "isNull", MethodType.methodType(boolean.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<ConcurrentMap<String, Accessor<?, ?>>> CACHE = new ClassValue<ConcurrentMap<String, Accessor<?, ?>>>() {
+        @Override
+        protected ConcurrentMap<String, Accessor<?, ?>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private PropertyPaths() {
+    }
+
+    /**
+     * The accessor of {@code path} on instances of {@code type}, compiled on first use. Throws an
+     * {@link IllegalArgumentException} if a hop does not exist, or if the value at the end of the path
+     * cannot be a {@code resultType}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, R> Accessor<T, R> of(Class<T> type, String path, Class<R> resultType) {
+        Accessor<?, ?> accessor = CACHE.get(type).computeIfAbsent(path, p -> compile(type, p));
+        // a declared supertype may still hold a resultType at runtime
+        if (!wrap(resultType).isAssignableFrom(accessor.leaf) && !accessor.leaf.isAssignableFrom(wrap(resultType))) {
+            throw new IllegalArgumentException(type.getName() + "." + path + " is a " + accessor.leaf.getName()
+                    + ", not a " + resultType.getName());
+        }
+        return (Accessor<T, R>) accessor;
+    }
+
+    /** number of compiled paths for {@code type} */
+    static int cached(Class<?> type) {
+        return CACHE.get(type).size();
+    }
+
+    private static Accessor<?, ?> compile(Class<?> type, String path) {
+        MethodHandle chain = null;
+        Class<?> current = type;
+        for (String name : path.split("\\.", -1)) {
+            if (current.isPrimitive()) {
+                throw new IllegalArgumentException(type.getName() + "." + path + ": no property " + name + " on a " + current);
+            }
+            MethodHandle hop = getter(current, name);
+            current = hop.type().returnType();
+            MethodHandle safe = nullSafe(hop.asType(MethodType.methodType(Object.class, Object.class)));
+            chain = chain == null ? safe : MethodHandles.filterReturnValue(chain, safe);
+        }
+        return new Accessor<>(path, wrap(current), chain);
+    }
+
+    /** {@code receiver == null ? null : hop(receiver)} */
+    private static MethodHandle nullSafe(MethodHandle hop) {
+        return MethodHandles.guardWithTest(IS_NULL, RETURN_NULL, hop);
+    }
+
+    private static boolean isNull(Object value) {
+        return value == null;
+    }
+
+    private static MethodHandle getter(Class<?> type, String name) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("empty property name on " + type.getName());
+        }
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String candidate : new String[]{"get" + capitalized, "is" + capitalized, name}) {
+            try {
+                Method method = type.getMethod(candidate);
+                if (method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers())) {
+                    // a public method of a package-private class is not accessible as such
+                    method.setAccessible(true);
+                    return LOOKUP.unreflect(method);
+                }
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                // next candidate
+            }
+        }
+        for (Class<?> owner = type; owner != null; owner = owner.getSuperclass()) {
+            try {
+                Field field = owner.getDeclaredField(name);
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    return LOOKUP.unreflectGetter(field);
+                }
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("cannot read " + owner.getName() + "." + name, e);
+            }
+        }
+        throw new IllegalArgumentException("no property " + name + " on " + type.getName());
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+}
@@ -0,0 +1,359 @@
+package com.vspiewak.jdk_features.jdk9;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link System.LoggerFinder} whose loggers only capture the call (level, message, raw parameters)
+ * into a lock-free ring buffer. Formatting and file I/O happen on a single background writer thread,
+ * which drains records in batches and forces the file once per batch (group commit).
+ * <p>
+ * A record that fails to format is written as its raw message. The first I/O error is kept, and
+ * {@link #flush()} throws it from then on: the records of the failed batch are lost.
+ * <p>
+ * To make it the {@code System.getLogger} backend, register it in
+ * {@code META-INF/services/java.lang.System$LoggerFinder}.
+ */
+public class AsyncLoggerFinder extends System.LoggerFinder implements AutoCloseable {
+
+    public enum OverflowPolicy {
+        /** wait for the writer to free a slot */
+        BLOCK,
+        /** discard the record */
+        DROP,
+        /** keep one record out of {@link #SAMPLE_RATE} while the buffer is full, discard the others */
+        SAMPLE
+    }
+
+    static final int SAMPLE_RATE = 16;
+
+    private static final int BATCH_SIZE = 256;
+
+    private final ConcurrentMap<String, System.Logger> loggers = new ConcurrentHashMap<>();
+    private final System.Logger.Level threshold;
+    private final OverflowPolicy policy;
+
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    public AsyncLoggerFinder() {
+        this(Paths.get(System.getProperty("jdk_features.async.log",
+                System.getProperty("java.io.tmpdir") + "/jdk-features.log")), 8192, OverflowPolicy.BLOCK);
+    }
+
+    public AsyncLoggerFinder(Path file, int capacity, OverflowPolicy policy) {
+        this(file, capacity, policy, System.Logger.Level.INFO);
+    }
+
+    public AsyncLoggerFinder(Path file, int capacity, OverflowPolicy policy, System.Logger.Level threshold) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.policy = policy;
+        this.threshold = threshold;
+        try {
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.writer = new Thread(this::drainLoop, "async-logger-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public System.Logger getLogger(String name, Module module) {
+        return loggers.computeIfAbsent(name, AsyncLogger::new);
+    }
+
+    /** records discarded because the buffer was full */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until every record published before this call is written and forced to disk. Throws the
+     * first write error of this finder, if any.
+     */
+    public void flush() throws IOException {
+        long target = tail.get();
+        while (committed.get() < target) {
+            if (!writer.isAlive()) {
+                throw new IllegalStateException("async logger writer has stopped");
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        IOException error = failure;
+        if (error != null) {
+            throw new IOException("log records lost", error);
+        }
+    }
+
+    /**
+     * Flushes, then stops the writer. An interrupt does not cut the wait short: the writer still owns
+     * the channel, so the interrupt flag is restored once it has stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            running = false;
+            LockSupport.unpark(writer);
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    private void publish(LogRecord record) {
+        if (tryPublish(record)) {
+            return;
+        }
+        switch (policy) {
+            case DROP:
+                dropped.increment();
+                break;
+            case SAMPLE:
+                if (overflows.incrementAndGet() % SAMPLE_RATE != 0) {
+                    dropped.increment();
+                } else {
+                    awaitFreeSlot(record);
+                }
+                break;
+            default:
+                awaitFreeSlot(record);
+        }
+    }
+
+    private void awaitFreeSlot(LogRecord record) {
+        int spins = 0;
+        while (!tryPublish(record)) {
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else if (!writer.isAlive()) {
+                // nothing will free a slot any more
+                dropped.increment();
+                return;
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            }
+        }
+    }
+
+    private boolean tryPublish(LogRecord record) {
+        for (; ; ) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                slots.setRelease((int) t & mask, record);
+                return true;
+            }
+        }
+    }
+
+    private void drainLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        StringBuilder line = new StringBuilder(256);
+        long h = head.get();
+        while (running || h < tail.get()) {
+            int batch = 0;
+            while (batch < BATCH_SIZE) {
+                int index = (int) h & mask;
+                LogRecord record = slots.getAcquire(index);
+                if (record == null) {
+                    // empty, or a producer has claimed the slot but not published it yet
+                    break;
+                }
+                slots.setRelease(index, null);
+                head.lazySet(++h);
+                line.setLength(0);
+                try {
+                    record.formatTo(line);
+                } catch (RuntimeException e) {
+                    // a bad pattern or a throwing toString() must not stop the writer
+                    line.setLength(0);
+                    record.formatRawTo(line, e);
+                }
+                buffer = write(buffer, line);
+                batch++;
+            }
+            if (batch == 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                continue;
+            }
+            commit(buffer);
+            committed.set(h);
+        }
+    }
+
+    private ByteBuffer write(ByteBuffer buffer, StringBuilder line) {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            commit(buffer);
+            if (bytes.length > buffer.capacity()) {
+                buffer = ByteBuffer.allocateDirect(bytes.length);
+            }
+        }
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private void commit(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        buffer.clear();
+    }
+
+    private final class AsyncLogger implements System.Logger {
+
+        private final String name;
+
+        AsyncLogger(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isLoggable(Level level) {
+            return level != Level.OFF && level.getSeverity() >= threshold.getSeverity();
+        }
+
+        @Override
+        public void log(Level level, ResourceBundle bundle, String msg, Throwable thrown) {
+            if (isLoggable(level)) {
+                publish(new LogRecord(System.currentTimeMillis(), level, name, bundle, msg, null, thrown));
+            }
+        }
+
+        @Override
+        public void log(Level level, ResourceBundle bundle, String format, Object... params) {
+            if (isLoggable(level)) {
+                publish(new LogRecord(System.currentTimeMillis(), level, name, bundle, format, params, null));
+            }
+        }
+    }
+
+    private static final class LogRecord {
+
+        private final long millis;
+        private final System.Logger.Level level;
+        private final String logger;
+        private final ResourceBundle bundle;
+        private final String msg;
+        private final Object[] params;
+        private final Throwable thrown;
+
+        LogRecord(long millis, System.Logger.Level level, String logger, ResourceBundle bundle,
+                  String msg, Object[] params, Throwable thrown) {
+            this.millis = millis;
+            this.level = level;
+            this.logger = logger;
+            this.bundle = bundle;
+            this.msg = msg;
+            this.params = params;
+            this.thrown = thrown;
+        }
+
+        void formatTo(StringBuilder sb) {
+            String text = localize();
+            if (params != null && params.length > 0) {
+                text = MessageFormat.format(text, params);
+            }
+            header(sb).append(text).append('\n');
+            appendThrown(sb);
+        }
+
+        /** the message without parameters, and why it could not be formatted */
+        void formatRawTo(StringBuilder sb, RuntimeException error) {
+            header(sb).append(msg)
+                    .append(" [unformatted: ").append(error.getClass().getName())
+                    .append(": ").append(error.getMessage()).append(']')
+                    .append('\n');
+            appendThrown(sb);
+        }
+
+        private StringBuilder header(StringBuilder sb) {
+            return sb.append(Instant.ofEpochMilli(millis))
+                    .append(' ').append(level.getName())
+                    .append(' ').append(logger)
+                    .append(" - ");
+        }
+
+        private void appendThrown(StringBuilder sb) {
+            if (thrown != null) {
+                StringWriter trace = new StringWriter();
+                thrown.printStackTrace(new PrintWriter(trace));
+                sb.append(trace);
+            }
+        }
+
+        private String localize() {
+            if (bundle == null || msg == null) {
+                return String.valueOf(msg);
+            }
+            try {
+                return bundle.getString(msg);
+            } catch (MissingResourceException e) {
+                return msg;
+            }
+        }
+    }
+
+}
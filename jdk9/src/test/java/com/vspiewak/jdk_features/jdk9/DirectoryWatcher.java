@@ -0,0 +1,369 @@
+package com.vspiewak.jdk_features.jdk9;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recursive change feed over a directory tree, built on {@link WatchService}: new subdirectories are
+ * registered as they appear, and bursts of events are coalesced per file into batches published once
+ * the tree has been quiet for a while (or after a maximum delay, so a constant stream still flows).
+ * <p>
+ * When a key overflows, only its directory is rescanned and diffed against the last known state.
+ * Only regular files are reported.
+ */
+public class DirectoryWatcher implements Flow.Publisher<List<DirectoryWatcher.Change>>, AutoCloseable {
+
+    public enum Kind {
+        CREATED, MODIFIED, DELETED
+    }
+
+    public static final class Change {
+        private final Kind kind;
+        private final Path path;
+
+        public Change(Kind kind, Path path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Change && kind == ((Change) o).kind && path.equals(((Change) o).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, path);
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path;
+        }
+    }
+
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final WatchService watchService;
+    private final long quietNanos;
+    private final long maxDelayNanos;
+    private final ExecutorService delivery;
+    private final SubmissionPublisher<List<Change>> publisher;
+    private final Thread thread;
+    private final LongAdder overflows = new LongAdder();
+
+    // only touched by the watch thread, apart from the initial registration
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Map<Path, FileTime>> filesByDirectory = new HashMap<>();
+    private final Map<Path, Kind> pending = new LinkedHashMap<>();
+    private long firstPending;
+    private long lastPending;
+
+    public DirectoryWatcher(Path root, long quiet, long maxDelay, TimeUnit unit, int bufferCapacity) throws IOException {
+        this.watchService = root.getFileSystem().newWatchService();
+        this.quietNanos = unit.toNanos(quiet);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.delivery = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "directory-watcher-delivery");
+            t.setDaemon(true);
+            return t;
+        });
+        this.publisher = new SubmissionPublisher<>(delivery, bufferCapacity);
+        registerTree(root, false);
+        this.thread = new Thread(this::loop, "directory-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public DirectoryWatcher(Path root) throws IOException {
+        this(root, 50, 500, TimeUnit.MILLISECONDS, Flow.defaultBufferSize());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Change>> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /** number of overflowed keys recovered by a rescan */
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    /** batches submitted but not yet consumed by the slowest subscriber */
+    public int lag() {
+        return publisher.estimateMaximumLag();
+    }
+
+    private void loop() {
+        try {
+            try {
+                while (true) {
+                    long timeout = pending.isEmpty()
+                            ? IDLE_POLL_NANOS
+                            : Math.min(lastPending + quietNanos, firstPending + maxDelayNanos) - System.nanoTime();
+                    WatchKey key = watchService.poll(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+                    while (key != null) {
+                        process(key);
+                        key = due() ? null : watchService.poll();
+                    }
+                    if (due()) {
+                        publishPending();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closing: what is already queued goes out as a final batch
+                for (WatchKey key = watchService.poll(); key != null; key = watchService.poll()) {
+                    process(key);
+                }
+                if (!pending.isEmpty()) {
+                    publishPending();
+                }
+            }
+            publisher.close();
+        } catch (ClosedWatchServiceException e) {
+            publisher.close();
+        } catch (Throwable t) {
+            publisher.closeExceptionally(t);
+        }
+    }
+
+    private void publishPending() {
+        List<Change> batch = new ArrayList<>(pending.size());
+        for (Map.Entry<Path, Kind> entry : pending.entrySet()) {
+            batch.add(new Change(entry.getValue(), entry.getKey()));
+        }
+        pending.clear();
+        // blocks while the buffer of a subscriber is full; the kernel queues events meanwhile
+        publisher.submit(batch);
+    }
+
+    private boolean due() {
+        long now = System.nanoTime();
+        return !pending.isEmpty() && (now - lastPending >= quietNanos || now - firstPending >= maxDelayNanos);
+    }
+
+    private void process(WatchKey key) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                break;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflows.increment();
+                rescan(dir);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    // files may have been created before the registration
+                    registerTree(path, true);
+                } else {
+                    fileChanged(dir, path, Kind.CREATED);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                if (!filesByDirectory.containsKey(path)) {
+                    fileChanged(dir, path, Kind.MODIFIED);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                if (filesByDirectory.containsKey(path)) {
+                    forgetTree(path);
+                } else if (files(dir).remove(path) != null) {
+                    record(path, Kind.DELETED);
+                }
+            }
+        }
+        if (!key.reset()) {
+            Path gone = directories.remove(key);
+            if (gone != null && filesByDirectory.containsKey(gone)) {
+                forgetTree(gone);
+            }
+        }
+    }
+
+    private void fileChanged(Path dir, Path file, Kind kind) {
+        FileTime mtime;
+        try {
+            mtime = Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return; // already gone, its delete event follows
+        }
+        files(dir).put(file, mtime);
+        record(file, kind);
+    }
+
+    /** diffs the directory against what is known, picking up missed files and subdirectories */
+    private void rescan(Path dir) throws IOException {
+        Map<Path, FileTime> known = files(dir);
+        Map<Path, FileTime> seen = new HashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (!filesByDirectory.containsKey(entry)) {
+                        registerTree(entry, true);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    seen.put(entry, attrs.lastModifiedTime());
+                }
+            }
+        }
+        for (Map.Entry<Path, FileTime> entry : seen.entrySet()) {
+            FileTime previous = known.put(entry.getKey(), entry.getValue());
+            if (previous == null) {
+                record(entry.getKey(), Kind.CREATED);
+            } else if (!previous.equals(entry.getValue())) {
+                record(entry.getKey(), Kind.MODIFIED);
+            }
+        }
+        for (Iterator<Path> it = known.keySet().iterator(); it.hasNext(); ) {
+            Path file = it.next();
+            if (!seen.containsKey(file)) {
+                it.remove();
+                record(file, Kind.DELETED);
+            }
+        }
+    }
+
+    private void registerTree(Path root, boolean report) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key;
+                try {
+                    key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                } catch (NoSuchFileException e) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(key, dir);
+                files(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    files(file.getParent()).put(file, attrs.lastModifiedTime());
+                    if (report) {
+                        record(file, Kind.CREATED);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                // deleted while walking
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+    }
+
+    private void forgetTree(Path root) {
+        for (Iterator<Map.Entry<Path, Map<Path, FileTime>>> it = filesByDirectory.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Map<Path, FileTime>> entry = it.next();
+            if (entry.getKey().startsWith(root)) {
+                for (Path file : entry.getValue().keySet()) {
+                    record(file, Kind.DELETED);
+                }
+                it.remove();
+            }
+        }
+        for (Iterator<Map.Entry<WatchKey, Path>> it = directories.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<WatchKey, Path> entry = it.next();
+            if (entry.getValue().startsWith(root)) {
+                entry.getKey().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private Map<Path, FileTime> files(Path dir) {
+        return filesByDirectory.computeIfAbsent(dir, k -> new HashMap<>());
+    }
+
+    /** coalesces with the pending change of the same file */
+    private void record(Path path, Kind kind) {
+        long now = System.nanoTime();
+        if (pending.isEmpty()) {
+            firstPending = now;
+        }
+        lastPending = now;
+        Kind previous = pending.get(path);
+        if (previous == Kind.CREATED && kind == Kind.DELETED) {
+            pending.remove(path);
+        } else if (previous == Kind.CREATED) {
+            // still a creation
+        } else if (previous == Kind.DELETED && kind == Kind.CREATED) {
+            pending.put(path, Kind.MODIFIED);
+        } else {
+            pending.put(path, kind);
+        }
+    }
+
+    /** publishes the changes seen so far as a final batch, then completes the subscribers */
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            publisher.close();
+            delivery.shutdown();
+        }
+    }
+
+}
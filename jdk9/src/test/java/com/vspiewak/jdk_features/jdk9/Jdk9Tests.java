@@ -2,20 +2,59 @@ package com.vspiewak.jdk_features.jdk9;
 
 import jdk.jshell.JShell;
 import jdk.jshell.SnippetEvent;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.FileHandler;
+import java.util.logging.SimpleFormatter;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class Jdk9Tests {
 
@@ -25,6 +64,110 @@ class Jdk9Tests {
         assertThat(boot.findModule("java.base")).isPresent();
     }
 
+    @Test
+    void canLoadPluginsLazilyFromChildModuleLayers(@TempDir Path tmp) throws IOException {
+        int numberOfPlugins = 100;
+        Path root = compilePluginModules(tmp, numberOfPlugins);
+
+        List<PluginLoader.Plugin<Supplier<String>>> plugins = supplierLoader().load(root);
+
+        assertThat(plugins).hasSize(numberOfPlugins);
+        assertThat(plugins).noneMatch(PluginLoader.Plugin::isTypeLoaded);
+        assertThat(plugins).noneMatch(PluginLoader.Plugin::isInstantiated);
+
+        PluginLoader.Plugin<Supplier<String>> first = plugins.stream()
+                .filter(p -> p.module().equals("plugin42"))
+                .findFirst()
+                .get();
+        assertThat(first.providerName()).isEqualTo("plugin42.Hello");
+        assertThat(first.get().get()).isEqualTo("hello from plugin42");
+        assertThat(first.get()).isSameAs(first.get());
+        assertThat(first.type().getModule().getLayer()).isNotSameAs(ModuleLayer.boot());
+        assertThat(first.instantiateNanos()).isNotNegative();
+        assertThat(plugins.stream().filter(PluginLoader.Plugin::isTypeLoaded)).containsExactly(first);
+        assertThat(plugins.stream().filter(PluginLoader.Plugin::isInstantiated)).containsExactly(first);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareColdStartWithEagerClasspathLoading(@TempDir Path tmp) throws Exception {
+        int numberOfPlugins = 100;
+        Path root = compilePluginModules(tmp, numberOfPlugins);
+        List<URL> classpath = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path dir : dirs) {
+                // on the class path a provider is declared in META-INF/services, module-info.class is ignored
+                Path services = Files.createDirectories(dir.resolve("META-INF/services"));
+                Files.write(services.resolve(Supplier.class.getName()),
+                        (dir.getFileName() + ".Hello\n").getBytes(StandardCharsets.UTF_8));
+                classpath.add(dir.toUri().toURL());
+            }
+        }
+
+        int rounds = 7;
+        long[] lazy = new long[rounds];
+        long[] eager = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            // fresh layers and class loaders each round, so every class is loaded again
+            long start = System.nanoTime();
+            List<PluginLoader.Plugin<Supplier<String>>> plugins = supplierLoader().load(root);
+            assertThat(plugins.get(0).get().get()).startsWith("hello from plugin");
+            lazy[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int instantiated = 0;
+            try (URLClassLoader loader = new URLClassLoader(classpath.toArray(new URL[0]), Jdk9Tests.class.getClassLoader())) {
+                for (Supplier<?> plugin : ServiceLoader.load(Supplier.class, loader)) {
+                    assertThat(plugin.get()).isNotNull();
+                    instantiated++;
+                }
+            }
+            eager[round] = System.nanoTime() - start;
+            assertThat(instantiated).isGreaterThanOrEqualTo(numberOfPlugins);
+        }
+        Arrays.sort(lazy);
+        Arrays.sort(eager);
+
+        // these plugins do nothing when loaded, so this only weighs layer resolution against class path scanning
+        System.out.printf("%d plugins: lazy module layers %.1f ms to first plugin, eager class path %.1f ms (median of %d)%n",
+                numberOfPlugins, lazy[rounds / 2] / 1e6, eager[rounds / 2] / 1e6, rounds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PluginLoader<Supplier<String>> supplierLoader() {
+        return new PluginLoader<>((Class<Supplier<String>>) (Class<?>) Supplier.class);
+    }
+
+    private static Path compilePluginModules(Path tmp, int count) throws IOException {
+        Path src = Files.createDirectory(tmp.resolve("plugins-src"));
+        Path out = Files.createDirectory(tmp.resolve("plugins"));
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = "plugin" + i;
+            Path dir = Files.createDirectories(src.resolve(name).resolve(name));
+            Path moduleInfo = src.resolve(name).resolve("module-info.java");
+            Path hello = dir.resolve("Hello.java");
+            Files.write(moduleInfo, ("module " + name + " {\n"
+                    + "    provides java.util.function.Supplier with " + name + ".Hello;\n"
+                    + "}\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(hello, ("package " + name + ";\n"
+                    + "public class Hello implements java.util.function.Supplier<String> {\n"
+                    + "    public String get() { return \"hello from " + name + "\"; }\n"
+                    + "}\n").getBytes(StandardCharsets.UTF_8));
+            sources.add(moduleInfo);
+            sources.add(hello);
+        }
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            boolean compiled = javac.getTask(null, files, null,
+                    List.of("-Xlint:-module", "--module-source-path", src.toString(), "-d", out.toString()),
+                    null, files.getJavaFileObjectsFromPaths(sources)).call();
+            assertThat(compiled).isTrue();
+        }
+        return out;
+    }
+
     @Test
     void canUseJShell() {
         try (JShell jshell = JShell.create()) {
@@ -85,6 +228,43 @@ class Jdk9Tests {
         assertThat(self.pid()).isGreaterThan(0);
     }
 
+    @Test
+    void canReportResourcesOfForkedBenchmarkWorkers() throws Exception {
+        assumeTrue(Files.isReadable(Paths.get("/proc/self/status")), "needs /proc");
+
+        try (ResourceSampler sampler = new ResourceSampler(20, TimeUnit.MILLISECONDS)) {
+            ResourceSampler.Report lean = sampler.measure("lean", () -> forkWorkerWhileHolding(4));
+            ResourceSampler.Report bloated = sampler.measure("bloated", () -> forkWorkerWhileHolding(128));
+            assertThat(lean.toString()).startsWith("lean: ").contains(lean.samples + " samples");
+            assertThat(lean.samples).isGreaterThan(1);
+            assertThat(lean.peakDescendants).isGreaterThanOrEqualTo(1);
+            assertThat(lean.descendantCpuNanos).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(50));
+            assertThat(lean.peakRssBytes).isGreaterThan(ResourceSampler.rssBytes(ProcessHandle.current().pid()) / 2);
+            assertThat(lean.allocatedBytes).isGreaterThanOrEqualTo(4L << 20);
+            assertThat(bloated.allocatedBytes).isGreaterThanOrEqualTo(128L << 20);
+
+            assertThat(lean.regressionsAgainst(lean, 0.5)).isEmpty();
+            List<String> regressions = bloated.regressionsAgainst(lean, 0.5);
+            assertThat(regressions).anyMatch(r -> r.startsWith("allocated"));
+            assertThat(regressions).anyMatch(r -> r.startsWith("peak heap"));
+        }
+    }
+
+    /** a forked worker burns CPU while this thread keeps {@code megabytes} of heap reachable */
+    private static long forkWorkerWhileHolding(int megabytes) throws Exception {
+        Process worker = new ProcessBuilder("sh", "-c", "i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done").start();
+        List<byte[]> held = new ArrayList<>();
+        for (int i = 0; i < megabytes; i++) {
+            held.add(new byte[1 << 20]);
+        }
+        assertThat(worker.waitFor()).isZero();
+        long checksum = 0;
+        for (byte[] block : held) {
+            checksum += block.length;
+        }
+        return checksum;
+    }
+
     @Test
     void canUseFlowSubmissionPublisher() throws InterruptedException {
         SubmissionPublisher<String> pub = new SubmissionPublisher<>();
@@ -124,6 +304,200 @@ class Jdk9Tests {
         pub.close();
     }
 
+    @Test
+    void canWatchDirectoryTreeWithDebouncedBatches(@TempDir Path root) throws Exception {
+        Path existing = Files.createDirectory(root.resolve("existing"));
+        Path old = Files.write(existing.resolve("old.txt"), new byte[]{1});
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root)) {
+            ChangeCollector collector = new ChangeCollector();
+            watcher.subscribe(collector);
+
+            // a burst of writes to one file is a single creation
+            Path file = root.resolve("a.txt");
+            for (int i = 0; i < 10; i++) {
+                Files.write(file, new byte[i + 1]);
+            }
+            // files in a new subdirectory are reported, even those created before it was registered
+            Path nested = Files.createDirectories(root.resolve("new").resolve("nested"));
+            Path deep = Files.write(nested.resolve("deep.txt"), new byte[]{2});
+            Files.delete(old);
+            Path temporary = Files.write(root.resolve("temporary.txt"), new byte[]{3});
+            Files.delete(temporary);
+
+            Set<DirectoryWatcher.Change> expected = Set.of(
+                    new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, file),
+                    new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, deep),
+                    new DirectoryWatcher.Change(DirectoryWatcher.Kind.DELETED, old));
+            assertThat(collector.await(expected, 5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(200);
+            assertThat(collector.changes).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    void canCollapseBurstIntoFewBatches(@TempDir Path root) throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root, 200, 1_000, TimeUnit.MILLISECONDS, Flow.defaultBufferSize())) {
+            ChangeCollector collector = new ChangeCollector();
+            watcher.subscribe(collector);
+
+            Set<DirectoryWatcher.Change> expected = new HashSet<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                Path file = root.resolve("file-" + i);
+                for (int write = 0; write < 3; write++) {
+                    Files.write(file, new byte[write + 1]);
+                }
+                expected.add(new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, file));
+            }
+            long burstMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertThat(collector.await(expected, 5, TimeUnit.SECONDS)).isTrue();
+            assertThat(collector.changes).isEqualTo(expected);
+            // one batch per maximum delay the burst lasted, plus the one after it went quiet
+            assertThat(collector.batches.get()).isLessThanOrEqualTo(2 + (int) (burstMillis / 1_000));
+        }
+    }
+
+    @Test
+    void canFlushPendingChangesOnClose(@TempDir Path root) throws Exception {
+        ChangeCollector collector = new ChangeCollector();
+        Set<DirectoryWatcher.Change> expected = new HashSet<>();
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root, 1, 1, TimeUnit.MINUTES, Flow.defaultBufferSize())) {
+            watcher.subscribe(collector);
+            for (int i = 0; i < 10; i++) {
+                expected.add(new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, Files.createFile(root.resolve("file-" + i))));
+            }
+            // let the events reach the watch service; nothing is due before a minute
+            Thread.sleep(300);
+            assertThat(collector.batches.get()).isZero();
+        }
+
+        assertThat(collector.completed.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(collector.batches.get()).isEqualTo(1);
+        assertThat(collector.changes).isEqualTo(expected);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canWatchTreeOfHundredThousandFiles(@TempDir Path root) throws Exception {
+        for (int d = 0; d < 100; d++) {
+            Path dir = Files.createDirectory(root.resolve("dir-" + d));
+            for (int f = 0; f < 1_000; f++) {
+                Files.createFile(dir.resolve("file-" + f));
+            }
+        }
+
+        long start = System.nanoTime();
+        long[] files = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        long walk = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root)) {
+            long register = System.nanoTime() - start;
+            ChangeCollector collector = new ChangeCollector();
+            watcher.subscribe(collector);
+
+            // a rename is reported as the deletion and creation of the same file
+            Path renamed = root.resolve("dir-50").resolve("renamed");
+            start = System.nanoTime();
+            Files.move(root.resolve("dir-50").resolve("file-0"), renamed);
+            Set<DirectoryWatcher.Change> expected = Set.of(
+                    new DirectoryWatcher.Change(DirectoryWatcher.Kind.DELETED, root.resolve("dir-50").resolve("file-0")),
+                    new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, renamed));
+            assertThat(collector.await(expected, 5, TimeUnit.SECONDS)).isTrue();
+            long latency = System.nanoTime() - start;
+
+            System.out.printf("%,d files: walk %d ms, watcher registration %d ms, change reported after %d ms%n",
+                    files[0], TimeUnit.NANOSECONDS.toMillis(walk), TimeUnit.NANOSECONDS.toMillis(register),
+                    TimeUnit.NANOSECONDS.toMillis(latency));
+        }
+        assertThat(files[0]).isEqualTo(100_000);
+    }
+
+    @Test
+    void canRecoverFromWatchKeyOverflowWithRescan(@TempDir Path root) throws Exception {
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root, 20, 100, TimeUnit.MILLISECONDS, 1)) {
+            CountDownLatch inFirstBatch = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            ChangeCollector collector = new ChangeCollector() {
+                @Override
+                public void onNext(List<DirectoryWatcher.Change> batch) {
+                    super.onNext(batch);
+                    inFirstBatch.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            watcher.subscribe(collector);
+
+            // stall the subscriber, fill the one-batch buffer, and block the watch thread in submit
+            Set<DirectoryWatcher.Change> expected = new HashSet<>();
+            for (String name : List.of("first", "second", "third")) {
+                expected.add(new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, Files.createFile(root.resolve(name))));
+                Thread.sleep(150);
+            }
+            assertThat(inFirstBatch.await(1, TimeUnit.SECONDS)).isTrue();
+
+            // more events than a watch key holds (512)
+            for (int i = 0; i < 2_000; i++) {
+                expected.add(new DirectoryWatcher.Change(DirectoryWatcher.Kind.CREATED, Files.createFile(root.resolve("file-" + i))));
+            }
+            release.countDown();
+
+            assertThat(collector.await(expected, 10, TimeUnit.SECONDS)).isTrue();
+            assertThat(watcher.overflows()).isPositive();
+        }
+    }
+
+    static class ChangeCollector implements Flow.Subscriber<List<DirectoryWatcher.Change>> {
+        final Set<DirectoryWatcher.Change> changes = ConcurrentHashMap.newKeySet();
+        final AtomicInteger batches = new AtomicInteger();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<DirectoryWatcher.Change> batch) {
+            changes.addAll(batch);
+            batches.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        boolean await(Set<DirectoryWatcher.Change> expected, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!changes.containsAll(expected)) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+    }
+
     @Test
     void canUseVarHandleArray() {
         VarHandle vh = MethodHandles.arrayElementVarHandle(int[].class);
@@ -134,6 +508,343 @@ class Jdk9Tests {
         assertThat(vh.get(arr, 0)).isEqualTo(10);
     }
 
+    @Test
+    void canUseVarHandleMpmcQueue() {
+        MpmcArrayQueue<String> queue = new MpmcArrayQueue<>(4);
+
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.offer("a")).isTrue();
+        assertThat(queue.offer("b")).isTrue();
+        assertThat(queue.offer("c")).isTrue();
+        assertThat(queue.offer("d")).isTrue();
+        assertThat(queue.offer("e")).isFalse();
+        assertThat(queue).hasSize(4).containsExactly("a", "b", "c", "d");
+        assertThat(queue.remainingCapacity()).isZero();
+
+        assertThat(queue.peek()).isEqualTo("a");
+        assertThat(queue.poll()).isEqualTo("a");
+        assertThat(queue.offer("e")).isTrue();
+
+        List<String> drained = new ArrayList<>();
+        assertThat(queue.drainTo(drained)).isEqualTo(4);
+        assertThat(drained).containsExactly("b", "c", "d", "e");
+        assertThat(queue).isEmpty();
+    }
+
+    @Test
+    void canUseMpmcQueueInThreadPoolExecutor() throws InterruptedException {
+        LongAdder counter = new LongAdder();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new MpmcArrayQueue<>(64), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        for (int i = 0; i < 1_000; i++) {
+            executor.execute(counter::increment);
+        }
+        executor.shutdown();
+
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(counter.sum()).isEqualTo(1_000);
+    }
+
+    @Test
+    void canRemoveFromMpmcQueue() {
+        MpmcArrayQueue<String> queue = new MpmcArrayQueue<>(4);
+        queue.addAll(List.of("a", "b", "c", "d"));
+
+        assertThat(queue.remove("b")).isTrue();
+        assertThat(queue.remove("b")).isFalse();
+        assertThat(queue).hasSize(3).containsExactly("a", "c", "d");
+        // the tombstone keeps its slot until a consumer skips it
+        assertThat(queue.offer("e")).isFalse();
+        assertThat(queue.remainingCapacity()).isZero();
+
+        assertThat(queue.remove("a")).isTrue();
+        assertThat(queue.peek()).isEqualTo("c");
+        Iterator<String> it = queue.iterator();
+        assertThat(it.next()).isEqualTo("c");
+        it.remove();
+        assertThat(queue).containsExactly("d");
+
+        assertThat(queue.poll()).isEqualTo("d");
+        assertThat(queue.poll()).isNull();
+        assertThat(queue).isEmpty();
+        assertThat(queue.remainingCapacity()).isEqualTo(4);
+    }
+
+    @Test
+    void canRemoveAndPurgeTasksOfThreadPoolExecutorOnMpmcQueue() throws InterruptedException {
+        LongAdder counter = new LongAdder();
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new MpmcArrayQueue<>(64));
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Runnable removed = counter::increment;
+        executor.execute(removed);
+        List<Future<?>> cancelled = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            cancelled.add(executor.submit(counter::increment));
+            executor.execute(counter::increment);
+        }
+        assertThat(executor.remove(removed)).isTrue();
+        cancelled.forEach(f -> f.cancel(false));
+        executor.purge();
+        assertThat(executor.getQueue()).hasSize(10);
+
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(counter.sum()).isEqualTo(10);
+    }
+
+    @Test
+    void mpmcQueueDeliversEveryElementOnceInProducerOrder() throws InterruptedException {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 100_000;
+        MpmcArrayQueue<Long> queue = new MpmcArrayQueue<>(128);
+        AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch consumed = new CountDownLatch(producers * perProducer);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            threads.add(new Thread(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    try {
+                        queue.put(producer * perProducer + i);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                // a FIFO queue hands out each producer's elements in the order they were put
+                long[] last = new long[producers];
+                Arrays.fill(last, -1);
+                while (consumed.getCount() > 0) {
+                    Long value = queue.poll();
+                    if (value == null) {
+                        continue;
+                    }
+                    int producer = (int) (value / perProducer);
+                    long index = value % perProducer;
+                    if (index <= last[producer]) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last[producer] = index;
+                    seen.incrementAndGet(value.intValue());
+                    consumed.countDown();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        assertThat(consumed.await(30, TimeUnit.SECONDS)).isTrue();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(outOfOrder.get()).isZero();
+        for (int i = 0; i < seen.length(); i++) {
+            assertThat(seen.get(i)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void mpmcQueueFillsItsLastSlotOnlyOnce() throws Exception {
+        stress(10_000, () -> new QueueRace(2, "x"),
+                race -> race.offered1 = race.queue.offer("a"),
+                race -> race.offered2 = race.queue.offer("b"),
+                race -> {
+                    assertThat(race.offered1).isNotEqualTo(race.offered2);
+                    assertThat(race.queue).hasSize(2);
+                    assertThat(race.queue.remainingCapacity()).isZero();
+                });
+    }
+
+    @Test
+    void mpmcQueuePollsOrRemovesAnElementButNotBoth() throws Exception {
+        stress(10_000, () -> new QueueRace(2, "x"),
+                race -> race.polled = race.queue.poll(),
+                race -> race.offered2 = race.queue.remove("x"),
+                race -> {
+                    assertThat("x".equals(race.polled)).isNotEqualTo(race.offered2);
+                    assertThat(race.queue).isEmpty();
+                    assertThat(race.queue.poll()).isNull();
+                    assertThat(race.queue.remainingCapacity()).isEqualTo(2);
+                });
+    }
+
+    @Test
+    void mpmcQueueWakesConsumerParkedOnEmptyQueue() throws Exception {
+        stress(2_000, () -> new QueueRace(2),
+                race -> {
+                    long start = System.nanoTime();
+                    try {
+                        race.polled = race.queue.poll(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    race.waitedNanos = System.nanoTime() - start;
+                },
+                race -> race.offered2 = race.queue.offer("x"),
+                race -> {
+                    assertThat(race.offered2).isTrue();
+                    assertThat(race.polled).isEqualTo("x");
+                    // a lost wake-up would only end with the timeout
+                    assertThat(race.waitedNanos).isLessThan(TimeUnit.SECONDS.toNanos(1));
+                    assertThat(race.queue).isEmpty();
+                });
+    }
+
+    @Test
+    void mpmcQueueWakesProducerParkedOnFullQueue() throws Exception {
+        stress(2_000, () -> new QueueRace(2, "a", "b"),
+                race -> {
+                    long start = System.nanoTime();
+                    try {
+                        race.offered1 = race.queue.offer("c", 5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    race.waitedNanos = System.nanoTime() - start;
+                },
+                race -> race.polled = race.queue.poll(),
+                race -> {
+                    assertThat(race.offered1).isTrue();
+                    assertThat(race.waitedNanos).isLessThan(TimeUnit.SECONDS.toNanos(1));
+                    assertThat(race.polled).isEqualTo("a");
+                    assertThat(race.queue).containsExactly("b", "c");
+                });
+    }
+
+    /** the state of one round of an MPMC queue stress test, and what each actor saw */
+    private static final class QueueRace {
+
+        final MpmcArrayQueue<String> queue;
+        boolean offered1;
+        boolean offered2;
+        String polled;
+        long waitedNanos;
+
+        QueueRace(int capacity, String... elements) {
+            queue = new MpmcArrayQueue<>(capacity);
+            queue.addAll(List.of(elements));
+        }
+    }
+
+    /**
+     * A jcstress-style harness: releases both actors together on a fresh state, {@code rounds} times,
+     * and checks the outcome of each round once both are done.
+     */
+    private static <S> void stress(int rounds, Supplier<S> state, Consumer<S> actor1, Consumer<S> actor2,
+                                   Consumer<S> arbiter) throws Exception {
+        AtomicReference<S> current = new AtomicReference<>();
+        CyclicBarrier start = new CyclicBarrier(3);
+        CyclicBarrier end = new CyclicBarrier(3);
+        List<Thread> actors = new ArrayList<>();
+        for (Consumer<S> actor : List.of(actor1, actor2)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        start.await(10, TimeUnit.SECONDS);
+                        actor.accept(current.get());
+                        end.await(10, TimeUnit.SECONDS);
+                    }
+                } catch (Exception e) {
+                    // the barrier is broken: the arbiter failed, or the other actor timed out
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            actors.add(thread);
+        }
+        try {
+            for (int round = 0; round < rounds; round++) {
+                current.set(state.get());
+                start.await(10, TimeUnit.SECONDS);
+                end.await(10, TimeUnit.SECONDS);
+                arbiter.accept(current.get());
+            }
+        } finally {
+            start.reset();
+            end.reset();
+        }
+        for (Thread actor : actors) {
+            actor.join();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canCompareMpmcQueueThroughputWithBlockingQueues() throws Exception {
+        int items = 1 << 20;
+        int capacity = 1024;
+        System.out.printf("%-8s %14s %14s %14s%n", "threads", "MpmcArrayQueue", "ArrayBlocking", "LinkedBlocking");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            System.out.printf("%3d+%-4d", threads, threads);
+            List<Supplier<BlockingQueue<Long>>> queues = List.of(
+                    () -> new MpmcArrayQueue<>(capacity),
+                    () -> new ArrayBlockingQueue<>(capacity),
+                    () -> new LinkedBlockingQueue<>(capacity));
+            for (Supplier<BlockingQueue<Long>> queue : queues) {
+                // first run warms up, second one is measured
+                transfer(queue.get(), threads, items);
+                System.out.printf(" %10.1f M/s", items / (transfer(queue.get(), threads, items) / 1e3));
+            }
+            System.out.println();
+        }
+    }
+
+    /** moves {@code items} elements through the queue with put/take, returns the elapsed nanoseconds */
+    private static long transfer(BlockingQueue<Long> queue, int threads, int items) throws Exception {
+        int perThread = items / threads;
+        LongAdder sum = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < perThread; i++) {
+                        queue.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    long local = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        local += queue.take();
+                    }
+                    sum.add(local);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+        assertThat(sum.sum()).isEqualTo((long) threads * perThread * (perThread - 1) / 2);
+        return nanos;
+    }
+
     @Test
     void canUseSystemLogger() {
         System.Logger log = System.getLogger("Tst");
@@ -142,6 +853,163 @@ class Jdk9Tests {
         assertThat(log).isNotNull();
     }
 
+    @Test
+    void canUseAsyncSystemLoggerFinder() throws Exception {
+        Path file = Files.createTempFile("async-logger", ".log");
+        int numberOfThreads = 4;
+        int numberOfLogs = 1_000;
+
+        try (AsyncLoggerFinder finder = new AsyncLoggerFinder(file, 1024, AsyncLoggerFinder.OverflowPolicy.BLOCK)) {
+            System.Logger log = finder.getLogger("Tst", Jdk9Tests.class.getModule());
+            assertThat(log.isLoggable(System.Logger.Level.DEBUG)).isFalse();
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < numberOfThreads; t++) {
+                int id = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < numberOfLogs; i++) {
+                        log.log(System.Logger.Level.INFO, "thread {0} message {1}", id, i);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            finder.flush();
+            assertThat(finder.dropped()).isZero();
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(numberOfThreads * numberOfLogs);
+        assertThat(lines).anyMatch(l -> l.endsWith("INFO Tst - thread 3 message 999"));
+        Files.delete(file);
+    }
+
+    @Test
+    void canDropWhenAsyncSystemLoggerIsFull() throws Exception {
+        Path file = Files.createTempFile("async-logger", ".log");
+        int numberOfLogs = 10_000;
+        long dropped;
+
+        try (AsyncLoggerFinder finder = new AsyncLoggerFinder(file, 8, AsyncLoggerFinder.OverflowPolicy.DROP)) {
+            System.Logger log = finder.getLogger("Tst", Jdk9Tests.class.getModule());
+            for (int i = 0; i < numberOfLogs; i++) {
+                log.log(System.Logger.Level.WARNING, "message {0}", i);
+            }
+            finder.flush();
+            dropped = finder.dropped();
+        }
+
+        assertThat(dropped).isPositive();
+        assertThat(Files.readAllLines(file)).hasSize((int) (numberOfLogs - dropped));
+        Files.delete(file);
+    }
+
+    @Test
+    void canKeepWritingAfterBadLogFormat() throws Exception {
+        Path file = Files.createTempFile("async-logger", ".log");
+
+        try (AsyncLoggerFinder finder = new AsyncLoggerFinder(file, 8, AsyncLoggerFinder.OverflowPolicy.BLOCK)) {
+            System.Logger log = finder.getLogger("Tst", Jdk9Tests.class.getModule());
+            log.log(System.Logger.Level.INFO, "unmatched {0", 1);
+            // more records than slots: producers would wait forever on a dead writer
+            for (int i = 0; i < 100; i++) {
+                log.log(System.Logger.Level.INFO, "message {0}", i);
+            }
+            finder.flush();
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(101);
+        assertThat(lines.get(0)).contains("INFO Tst - unmatched {0 [unformatted: java.lang.IllegalArgumentException");
+        assertThat(lines.get(100)).endsWith("INFO Tst - message 99");
+        Files.delete(file);
+    }
+
+    @Test
+    void canReportLostLogWritesOnFlush() throws Exception {
+        // writes to /dev/full fail with "No space left on device"
+        Path full = Paths.get("/dev/full");
+        assumeTrue(Files.isWritable(full));
+
+        AsyncLoggerFinder finder = new AsyncLoggerFinder(full, 8, AsyncLoggerFinder.OverflowPolicy.BLOCK);
+        finder.getLogger("Tst", Jdk9Tests.class.getModule()).log(System.Logger.Level.INFO, "lost");
+        assertThatThrownBy(finder::flush).isInstanceOf(IOException.class).hasMessage("log records lost");
+        assertThatThrownBy(finder::close).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void canLogUnder100NanosAtThirtyTwoThreadsUnlikeJul() throws Exception {
+        int numberOfThreads = 32;
+        int numberOfLogs = 20_000;
+        Path asyncFile = Files.createTempFile("async-logger", ".log");
+        Path julFile = Files.createTempFile("jul-logger", ".log");
+
+        double asyncNanos;
+        try (AsyncLoggerFinder finder = new AsyncLoggerFinder(asyncFile, 1 << 20, AsyncLoggerFinder.OverflowPolicy.BLOCK)) {
+            System.Logger log = finder.getLogger("Bench", Jdk9Tests.class.getModule());
+            // the buffer holds a whole run, so callers never wait for the writer
+            callerNanosPerLog(log, numberOfThreads, numberOfLogs);
+            finder.flush();
+            asyncNanos = callerNanosPerLog(log, numberOfThreads, numberOfLogs);
+            finder.flush();
+        }
+
+        // the default System.Logger backend, writing to a file rather than the console
+        java.util.logging.Logger jul = java.util.logging.Logger.getLogger("jdk9.bench");
+        FileHandler handler = new FileHandler(julFile.toString());
+        handler.setFormatter(new SimpleFormatter());
+        jul.setUseParentHandlers(false);
+        jul.addHandler(handler);
+        double julNanos;
+        try {
+            System.Logger log = System.getLogger("jdk9.bench");
+            callerNanosPerLog(log, numberOfThreads, numberOfLogs / 10);
+            julNanos = callerNanosPerLog(log, numberOfThreads, numberOfLogs);
+        } finally {
+            jul.removeHandler(handler);
+            handler.close();
+        }
+
+        System.out.printf("System.Logger at %d threads: async %.0f ns/call, JUL %.0f ns/call%n",
+                numberOfThreads, asyncNanos, julNanos);
+        assertThat(asyncNanos).isLessThan(100);
+        assertThat(asyncNanos).isLessThan(julNanos);
+        Files.delete(asyncFile);
+        Files.delete(julFile);
+    }
+
+    /** mean CPU time a caller spends per log call, so that 32 threads on fewer cores are not charged for waiting */
+    private static double callerNanosPerLog(System.Logger log, int numberOfThreads, int numberOfLogs) throws InterruptedException {
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        LongAdder nanos = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numberOfThreads; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long before = cpu.getCurrentThreadCpuTime();
+                for (int i = 0; i < numberOfLogs; i++) {
+                    log.log(System.Logger.Level.INFO, "thread {0} message {1}", id, i);
+                }
+                nanos.add(cpu.getCurrentThreadCpuTime() - before);
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return nanos.sum() / ((double) numberOfThreads * numberOfLogs);
+    }
+
     /*
     @Test
     void httpClientIncubator() {
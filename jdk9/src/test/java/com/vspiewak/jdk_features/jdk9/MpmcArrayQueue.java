@@ -0,0 +1,428 @@
+package com.vspiewak.jdk_features.jdk9;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer / multi-consumer queue (Dmitry Vyukov's sequence array design).
+ * <p>
+ * Every slot carries a sequence number: producers claim a slot when its sequence equals the tail,
+ * consumers when it equals the head + 1. Claims are a {@code compareAndExchange} on the counters,
+ * hand-offs a {@code setRelease} / {@code getAcquire} pair on the sequence array. Blocking methods
+ * spin briefly, then park in a waiter list that the opposite side unparks after each hand-off.
+ * <p>
+ * {@link #remove(Object)}, which {@link java.util.concurrent.ThreadPoolExecutor} uses to drop cancelled
+ * tasks, cannot close the gap in the ring: it swaps the element for a tombstone, which consumers skip.
+ * To swap it, the remover locks the slot by setting its sequence to {@link #LOCKED}, so that the slot
+ * cannot be consumed and refilled with the same element in between.
+ * {@link #iterator()} and {@link #peek()} are weakly consistent snapshots; the iterator supports
+ * {@link Iterator#remove()}.
+ */
+public class MpmcArrayQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final int SPINS = 64;
+    private static final Object REMOVED = new Object();
+    /** sequence of a slot being tombstoned: both sides see it as "changing" and retry */
+    private static final long LOCKED = Long.MIN_VALUE;
+
+    private final long[] sequences;
+    private final Object[] elements;
+    private final int mask;
+
+    // head and tail live in their own padded objects, so producers and consumers don't share a cache line
+    private final PaddedCounter head = new PaddedCounter();
+    private final PaddedCounter tail = new PaddedCounter();
+    /** published slots holding {@link #REMOVED}, not counted by {@link #size()} */
+    private final AtomicLong tombstones = new AtomicLong();
+    private final ConcurrentLinkedQueue<Thread> notEmptyWaiters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> notFullWaiters = new ConcurrentLinkedQueue<>();
+
+    public MpmcArrayQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two >= 2: " + capacity);
+        }
+        this.sequences = new long[capacity];
+        this.elements = new Object[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            SEQUENCE.setRelease(sequences, i, (long) i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long pos = tail.getAcquire();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, index);
+            long diff = seq - pos;
+            if (diff == 0) {
+                long witness = tail.compareAndExchange(pos, pos + 1);
+                if (witness == pos) {
+                    ELEMENT.set(elements, index, e);
+                    SEQUENCE.setRelease(sequences, index, pos + 1);
+                    signal(notEmptyWaiters);
+                    return true;
+                }
+                pos = witness;
+            } else if (diff < 0) {
+                // the slot still holds the element of the previous lap: full
+                return false;
+            } else {
+                pos = tail.getAcquire();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.getAcquire();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, index);
+            long diff = seq - (pos + 1);
+            if (diff == 0) {
+                long witness = head.compareAndExchange(pos, pos + 1);
+                if (witness == pos) {
+                    // atomic against remove(Object), so that an element is either polled or removed
+                    Object e = ELEMENT.getAndSet(elements, index, null);
+                    // a remover may hold the slot: wait until it hands it back before recycling it
+                    while (!SEQUENCE.compareAndSet(sequences, index, pos + 1, pos + mask + 1)) {
+                        Thread.onSpinWait();
+                    }
+                    signal(notFullWaiters);
+                    if (e != REMOVED) {
+                        return (E) e;
+                    }
+                    tombstones.decrementAndGet();
+                    pos = head.getAcquire();
+                } else {
+                    pos = witness;
+                }
+            } else if (diff < 0) {
+                // the slot has not been published for this lap yet: empty
+                return null;
+            } else {
+                pos = head.getAcquire();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long to = tail.getAcquire();
+        for (long pos = head.getAcquire(); pos < to; pos++) {
+            int index = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, index);
+            if (seq == LOCKED) {
+                // being removed
+                continue;
+            }
+            if (seq != pos + 1) {
+                return null;
+            }
+            Object e = ELEMENT.getAcquire(elements, index);
+            if (e != null && e != REMOVED) {
+                return (E) e;
+            }
+        }
+        return null;
+    }
+
+    /** tombstones the first element equal to {@code o} */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long to = tail.getAcquire();
+        for (long pos = head.getAcquire(); pos < to; pos++) {
+            int index = (int) pos & mask;
+            if ((long) SEQUENCE.getAcquire(sequences, index) == pos + 1) {
+                Object e = ELEMENT.getAcquire(elements, index);
+                if (e != null && e != REMOVED && o.equals(e) && removeAt(pos, e)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * False if {@code e} was polled or removed meanwhile. While the slot is locked it cannot be recycled,
+     * so the element compared is the one published at {@code pos}, not an equal one of a later lap.
+     */
+    private boolean removeAt(long pos, Object e) {
+        int index = (int) pos & mask;
+        if (!SEQUENCE.compareAndSet(sequences, index, pos + 1, LOCKED)) {
+            return false;
+        }
+        tombstones.incrementAndGet();
+        boolean removed = ELEMENT.compareAndSet(elements, index, e, REMOVED);
+        if (!removed) {
+            tombstones.decrementAndGet();
+        }
+        SEQUENCE.setRelease(sequences, index, pos + 1);
+        return removed;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        awaitOffer(e, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        return awaitOffer(e, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return awaitPoll(Long.MAX_VALUE);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitPoll(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private boolean awaitOffer(E e, long deadline) throws InterruptedException {
+        for (int spins = 0; ; spins++) {
+            if (offer(e)) {
+                return true;
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Thread current = Thread.currentThread();
+            notFullWaiters.add(current);
+            try {
+                // a consumer that freed a slot before we were listed did not see us: check again
+                if (offer(e)) {
+                    // our own wake-up may have been meant for another producer
+                    signal(notFullWaiters);
+                    return true;
+                }
+                if (!park(deadline)) {
+                    return false;
+                }
+            } finally {
+                notFullWaiters.remove(current);
+            }
+        }
+    }
+
+    private E awaitPoll(long deadline) throws InterruptedException {
+        for (int spins = 0; ; spins++) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Thread current = Thread.currentThread();
+            notEmptyWaiters.add(current);
+            try {
+                e = poll();
+                if (e != null) {
+                    signal(notEmptyWaiters);
+                    return e;
+                }
+                if (!park(deadline)) {
+                    return null;
+                }
+            } finally {
+                notEmptyWaiters.remove(current);
+            }
+        }
+    }
+
+    /** returns false once the deadline has passed */
+    private boolean park(long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            LockSupport.park(this);
+        } else {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return true;
+    }
+
+    /** unparks one waiter, if any */
+    private static void signal(ConcurrentLinkedQueue<Thread> waiters) {
+        // orders the hand-off before the read of the list, as adding a waiter does before its re-check
+        VarHandle.fullFence();
+        if (!waiters.isEmpty()) {
+            Thread waiter = waiters.poll();
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        for (; ; ) {
+            long before = head.getAcquire();
+            long t = tail.getAcquire();
+            long after = head.getAcquire();
+            if (before == after) {
+                return (int) Math.max(0, Math.min(t - after - tombstones.get(), capacity()));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /** tombstones still take a slot until a consumer skips them, so this counts them as used */
+    @Override
+    public int remainingCapacity() {
+        for (; ; ) {
+            long before = head.getAcquire();
+            long t = tail.getAcquire();
+            long after = head.getAcquire();
+            if (before == after) {
+                return (int) Math.max(0, capacity() - (t - after));
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        long from = head.getAcquire();
+        long to = tail.getAcquire();
+        for (long pos = from; pos < to; pos++) {
+            int index = (int) pos & mask;
+            if ((long) SEQUENCE.getAcquire(sequences, index) == pos + 1) {
+                Object e = ELEMENT.getAcquire(elements, index);
+                if (e != null && e != REMOVED) {
+                    snapshot.add((E) e);
+                    positions.add(pos);
+                }
+            }
+        }
+        return new Iterator<E>() {
+            private int next;
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next++;
+                return snapshot.get(last);
+            }
+
+            /** removes the element from the slot it was seen in, unless it was taken meanwhile */
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                removeAt(positions.get(last), snapshot.get(last));
+                last = -1;
+            }
+        };
+    }
+
+    // the padding is split across a class hierarchy: fields of one class may be reordered, but those
+    // of a superclass are laid out before those of its subclasses
+
+    @SuppressWarnings("unused")
+    private abstract static class LeftPadding {
+        private long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private abstract static class CounterValue extends LeftPadding {
+        volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class PaddedCounter extends CounterValue {
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CounterValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private long p11, p12, p13, p14, p15, p16, p17;
+
+        long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        long compareAndExchange(long expected, long next) {
+            return (long) VALUE.compareAndExchange(this, expected, next);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.vspiewak.jdk_features.jdk9;
+
+import java.io.IOException;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Loads every sub-directory of a plugins root as its own child {@link ModuleLayer} and discovers the
+ * providers of a service from the module descriptors, without loading their classes. A provider class
+ * is only loaded on the first {@link Plugin#type()} or {@link Plugin#get()}, and instantiated on the first
+ * {@link Plugin#get()}.
+ */
+public class PluginLoader<S> {
+
+    private final Class<S> service;
+    private final ModuleLayer parent;
+
+    public PluginLoader(Class<S> service) {
+        this(service, ModuleLayer.boot());
+    }
+
+    public PluginLoader(Class<S> service, ModuleLayer parent) {
+        this.service = service;
+        this.parent = parent;
+    }
+
+    public List<Plugin<S>> load(Path pluginsRoot) throws IOException {
+        List<Plugin<S>> plugins = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(pluginsRoot, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                plugins.addAll(loadLayer(dir));
+            }
+        }
+        return plugins;
+    }
+
+    private List<Plugin<S>> loadLayer(Path dir) {
+        long start = System.nanoTime();
+
+        ModuleFinder finder = ModuleFinder.of(dir);
+        Set<String> roots = finder.findAll().stream()
+                .map(ModuleReference::descriptor)
+                .map(d -> d.name())
+                .collect(Collectors.toSet());
+        Configuration configuration = parent.configuration().resolveAndBind(finder, ModuleFinder.of(), roots);
+        ModuleLayer layer = parent.defineModulesWithOneLoader(configuration, ClassLoader.getSystemClassLoader());
+        long loadNanos = System.nanoTime() - start;
+
+        // read the providers from the descriptors: iterating a ServiceLoader would load every provider class
+        List<Plugin<S>> plugins = new ArrayList<>();
+        for (Module module : layer.modules()) {
+            for (ModuleDescriptor.Provides provides : module.getDescriptor().provides()) {
+                if (provides.service().equals(service.getName())) {
+                    for (String provider : provides.providers()) {
+                        plugins.add(new Plugin<>(service, layer, module.getName(), provider, loadNanos));
+                    }
+                }
+            }
+        }
+        return plugins;
+    }
+
+    public static final class Plugin<S> {
+
+        private final Class<S> service;
+        private final ModuleLayer layer;
+        private final String module;
+        private final String providerName;
+        private final long loadNanos;
+        private volatile ServiceLoader.Provider<S> provider;
+        private volatile S instance;
+        private volatile long instantiateNanos = -1;
+
+        Plugin(Class<S> service, ModuleLayer layer, String module, String providerName, long loadNanos) {
+            this.service = service;
+            this.layer = layer;
+            this.module = module;
+            this.providerName = providerName;
+            this.loadNanos = loadNanos;
+        }
+
+        public String module() {
+            return module;
+        }
+
+        /** the provider class name, known without loading the class */
+        public String providerName() {
+            return providerName;
+        }
+
+        /** loads the provider class, but does not instantiate it */
+        public Class<? extends S> type() {
+            return provider().type();
+        }
+
+        public S get() {
+            S result = instance;
+            if (result == null) {
+                synchronized (this) {
+                    result = instance;
+                    if (result == null) {
+                        ServiceLoader.Provider<S> p = provider();
+                        long start = System.nanoTime();
+                        result = p.get();
+                        instantiateNanos = System.nanoTime() - start;
+                        instance = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private ServiceLoader.Provider<S> provider() {
+            ServiceLoader.Provider<S> result = provider;
+            if (result == null) {
+                synchronized (this) {
+                    result = provider;
+                    if (result == null) {
+                        // a plugin layer holds a single module, so this only loads the classes of its own providers
+                        result = ServiceLoader.load(layer, service).stream()
+                                .filter(p -> p.type().getModule().getLayer() == layer
+                                        && p.type().getName().equals(providerName))
+                                .findFirst()
+                                .orElseThrow(() -> new ServiceConfigurationError(
+                                        providerName + " does not provide " + service.getName()));
+                        provider = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        public boolean isTypeLoaded() {
+            return provider != null;
+        }
+
+        public boolean isInstantiated() {
+            return instance != null;
+        }
+
+        /** time spent resolving and defining the plugin layer */
+        public long loadNanos() {
+            return loadNanos;
+        }
+
+        /** time spent in the provider constructor, or -1 if not instantiated yet */
+        public long instantiateNanos() {
+            return instantiateNanos;
+        }
+    }
+
+}
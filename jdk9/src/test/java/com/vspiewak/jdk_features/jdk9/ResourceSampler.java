@@ -0,0 +1,265 @@
+package com.vspiewak.jdk_features.jdk9;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes CPU and memory to a benchmark and to the worker processes it forks. While
+ * {@link #measure} runs, a daemon thread samples at a low rate: CPU time of this process and of every
+ * {@link ProcessHandle#descendants() descendant}, RSS from {@code /proc/<pid>/status}, heap usage, and
+ * the bytes allocated by each thread of this JVM.
+ * <p>
+ * Sampled figures miss what happens between the last sample and the end of a process or thread: a
+ * descendant's last CPU slice, the last allocations of a thread that died. RSS is -1 without
+ * {@code /proc}.
+ */
+public class ResourceSampler implements AutoCloseable {
+
+    public static final class Report {
+        public final String benchmark;
+        public final long wallNanos;
+        public final long cpuNanos;
+        public final long descendantCpuNanos;
+        public final int peakDescendants;
+        public final long peakRssBytes;
+        public final long peakHeapBytes;
+        public final long allocatedBytes;
+        public final long gcCount;
+        public final long gcMillis;
+        public final int samples;
+
+        Report(String benchmark, long wallNanos, long cpuNanos, long descendantCpuNanos, int peakDescendants,
+               long peakRssBytes, long peakHeapBytes, long allocatedBytes, long gcCount, long gcMillis, int samples) {
+            this.benchmark = benchmark;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.descendantCpuNanos = descendantCpuNanos;
+            this.peakDescendants = peakDescendants;
+            this.peakRssBytes = peakRssBytes;
+            this.peakHeapBytes = peakHeapBytes;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.samples = samples;
+        }
+
+        public long totalCpuNanos() {
+            return cpuNanos + descendantCpuNanos;
+        }
+
+        /** average number of cores busy */
+        public double cpuUtilization() {
+            return (double) totalCpuNanos() / Math.max(1, wallNanos);
+        }
+
+        /**
+         * Figures of this report more than {@code tolerance} above those of {@code baseline}, e.g. 0.2
+         * for 20%: a throughput gain bought with twice the memory shows up here.
+         */
+        public List<String> regressionsAgainst(Report baseline, double tolerance) {
+            List<String> regressions = new ArrayList<>();
+            compare(regressions, "cpu", totalCpuNanos() / 1e6, baseline.totalCpuNanos() / 1e6, "ms", tolerance);
+            compare(regressions, "peak RSS", peakRssBytes / 1e6, baseline.peakRssBytes / 1e6, "MB", tolerance);
+            compare(regressions, "peak heap", peakHeapBytes / 1e6, baseline.peakHeapBytes / 1e6, "MB", tolerance);
+            compare(regressions, "allocated", allocatedBytes / 1e6, baseline.allocatedBytes / 1e6, "MB", tolerance);
+            return regressions;
+        }
+
+        private static void compare(List<String> regressions, String figure, double value, double baseline,
+                                    String unit, double tolerance) {
+            if (value >= 0 && baseline > 0 && value > baseline * (1 + tolerance)) {
+                regressions.add(String.format("%s %.1f %s vs %.1f %s (%+.0f%%)",
+                        figure, value, unit, baseline, unit, (value - baseline) * 100 / baseline));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.0f ms wall, %.0f ms cpu (%.0f ms in %d workers, %.2f cores), "
+                            + "peak RSS %.1f MB, peak heap %.1f MB, allocated %.1f MB, %d GCs in %d ms, %d samples",
+                    benchmark, wallNanos / 1e6, totalCpuNanos() / 1e6, descendantCpuNanos / 1e6, peakDescendants,
+                    cpuUtilization(), peakRssBytes / 1e6, peakHeapBytes / 1e6, allocatedBytes / 1e6, gcCount, gcMillis, samples);
+        }
+    }
+
+    /** running figures of the benchmark being measured */
+    private static final class Session {
+        final Map<Long, Long> descendantCpuAtStart = new HashMap<>();
+        final Map<Long, Long> descendantCpu = new HashMap<>();
+        final Map<Long, Long> allocatedAtStart = new HashMap<>();
+        final Map<Long, Long> allocated = new HashMap<>();
+        int peakDescendants;
+        long peakRss = -1;
+        long peakHeap;
+        int samples;
+    }
+
+    private final ProcessHandle self = ProcessHandle.current();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final com.sun.management.ThreadMXBean threads;
+    private final ScheduledExecutorService sampler;
+
+    private final Object measuring = new Object();
+    private volatile Session session;
+
+    public ResourceSampler(long period, TimeUnit unit) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        this.threads = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        if (threads != null) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, period, period, unit);
+    }
+
+    /** runs {@code body} in the calling thread; one benchmark at a time */
+    public Report measure(String benchmark, Callable<?> body) throws Exception {
+        synchronized (measuring) {
+            return measure(new Session(), benchmark, body);
+        }
+    }
+
+    private Report measure(Session started, String benchmark, Callable<?> body) throws Exception {
+        for (ProcessHandle descendant : descendants()) {
+            started.descendantCpuAtStart.put(descendant.pid(), cpuNanos(descendant));
+        }
+        sampleAllocations(started.allocatedAtStart);
+        long[] gcAtStart = gc();
+        long cpuAtStart = cpuNanos(self);
+        long start = System.nanoTime();
+
+        session = started;
+        try {
+            body.call();
+        } finally {
+            sample();
+            session = null;
+        }
+
+        long wall = System.nanoTime() - start;
+        long[] gcAtEnd = gc();
+        // a periodic sample may still be finishing
+        synchronized (started) {
+            long descendantCpu = 0;
+            for (Map.Entry<Long, Long> entry : started.descendantCpu.entrySet()) {
+                descendantCpu += entry.getValue() - started.descendantCpuAtStart.getOrDefault(entry.getKey(), 0L);
+            }
+            long allocated = 0;
+            for (Map.Entry<Long, Long> entry : started.allocated.entrySet()) {
+                allocated += entry.getValue() - started.allocatedAtStart.getOrDefault(entry.getKey(), 0L);
+            }
+            return new Report(benchmark, wall, cpuNanos(self) - cpuAtStart, descendantCpu, started.peakDescendants,
+                    started.peakRss, started.peakHeap, allocated, gcAtEnd[0] - gcAtStart[0], gcAtEnd[1] - gcAtStart[1],
+                    started.samples);
+        }
+    }
+
+    /** reads everything first, then updates the session under its monitor */
+    private void sample() {
+        Session current = session;
+        if (current == null) {
+            return;
+        }
+        List<ProcessHandle> descendants = descendants();
+        Map<Long, Long> cpu = new HashMap<>();
+        long rss = rssBytes(self.pid());
+        for (ProcessHandle descendant : descendants) {
+            cpu.put(descendant.pid(), cpuNanos(descendant));
+            long bytes = rssBytes(descendant.pid());
+            if (rss >= 0 && bytes >= 0) {
+                rss += bytes;
+            }
+        }
+        Map<Long, Long> allocated = new HashMap<>();
+        sampleAllocations(allocated);
+        long heap = memory.getHeapMemoryUsage().getUsed();
+
+        synchronized (current) {
+            for (Map.Entry<Long, Long> entry : cpu.entrySet()) {
+                current.descendantCpu.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+            current.allocated.putAll(allocated);
+            current.peakDescendants = Math.max(current.peakDescendants, descendants.size());
+            current.peakRss = Math.max(current.peakRss, rss);
+            current.peakHeap = Math.max(current.peakHeap, heap);
+            current.samples++;
+        }
+    }
+
+    private List<ProcessHandle> descendants() {
+        List<ProcessHandle> descendants = new ArrayList<>();
+        self.descendants().forEach(descendants::add);
+        return descendants;
+    }
+
+    private void sampleAllocations(Map<Long, Long> into) {
+        if (threads == null) {
+            return;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                into.put(ids[i], bytes[i]);
+            }
+        }
+    }
+
+    /** collections and milliseconds spent collecting, summed over all collectors */
+    private static long[] gc() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static long cpuNanos(ProcessHandle process) {
+        return process.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+    }
+
+    /** {@code VmRSS} of {@code /proc/<pid>/status}, or -1 */
+    static long rssBytes(long pid) {
+        Path status = Paths.get("/proc", Long.toString(pid), "status");
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    String kilobytes = line.substring("VmRSS:".length()).trim();
+                    return Long.parseLong(kilobytes.substring(0, kilobytes.indexOf(' '))) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // no /proc, or the process is gone
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+
+}